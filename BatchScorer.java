@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Batch scoring for the Feature 22 model y = a + b*x (x = charges, y = region code).
+ * Input can be a double[], a DoubleBuffer or a file of little-endian doubles, which is
+ * memory-mapped and scored chunk by chunk into an output file of the same layout.
+ *
+ * Every prediction is computed as a + b * x with one multiply and one add, each rounded
+ * (no fused multiply-add), so results are bit-identical to the scalar loop in
+ * Driver.printFeature22: the tolerance is 0 ulp. The array loop is a plain counted loop over
+ * primitive arrays, which C2 may auto-vectorize; whether it does depends on the JVM and CPU.
+ */
+final class BatchScorer {
+    /** Doubles per mapped chunk of a scored file (64 MB). */
+    static final int CHUNK_VALUES = 8 << 20;
+
+    private static final int BLOCK = 4096;
+
+    final double a, b;
+
+    BatchScorer(double a, double b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    BatchScorer(Driver.RegressionStats stats) {
+        this(stats.a, stats.b);
+    }
+
+    double score(double x) {
+        return a + b * x;
+    }
+
+    /** out[i] = a + b * x[i] for every i; out may be x itself. */
+    void score(double[] x, double[] out) {
+        if (out.length < x.length) throw new IllegalArgumentException("Output is shorter than input.");
+        score(x, 0, out, 0, x.length);
+    }
+
+    void score(double[] x, int xFrom, double[] out, int outFrom, int len) {
+        final double a = this.a, b = this.b;
+        if (xFrom == 0 && outFrom == 0) { // the common case; the simplest shape for C2 to vectorize
+            for (int i = 0; i < len; i++) out[i] = a + b * x[i];
+            return;
+        }
+        for (int i = 0; i < len; i++) out[outFrom + i] = a + b * x[xFrom + i];
+    }
+
+    /** Scores the remaining elements of x into out; both positions advance by the count scored. */
+    void score(DoubleBuffer x, DoubleBuffer out) {
+        int len = x.remaining();
+        if (out.remaining() < len) throw new IllegalArgumentException("Output is shorter than input.");
+        if (x.hasArray() && out.hasArray()) {
+            score(x.array(), x.arrayOffset() + x.position(), out.array(), out.arrayOffset() + out.position(), len);
+            x.position(x.position() + len);
+            out.position(out.position() + len);
+        } else {
+            // Direct/mapped buffers: bulk-copy blocks through a scratch array so the scoring
+            // loop stays the vectorizable array loop.
+            double[] block = new double[Math.min(len, BLOCK)];
+            for (int done = 0; done < len; ) {
+                int n = Math.min(block.length, len - done);
+                x.get(block, 0, n);
+                score(block, 0, block, 0, n);
+                out.put(block, 0, n);
+                done += n;
+            }
+        }
+    }
+
+    /**
+     * Scores a file of little-endian doubles into out (created or truncated). Returns the count.
+     * A file whose size isn't a multiple of 8 bytes is truncated input and is rejected before
+     * out is touched.
+     */
+    long scoreFile(Path in, Path out) throws IOException {
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ)) {
+            long size = src.size();
+            if (size % Double.BYTES != 0) {
+                throw new IOException(in + ": " + size + " bytes is not a whole number of doubles (truncated input?)");
+            }
+            long count = size / Double.BYTES;
+            try (FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                scoreChunks(src, dst, count);
+            }
+            return count;
+        }
+    }
+
+    private void scoreChunks(FileChannel src, FileChannel dst, long count) throws IOException {
+        for (long done = 0; done < count; ) {
+            int len = (int) Math.min(CHUNK_VALUES, count - done);
+            long offset = done * Double.BYTES, bytes = (long) len * Double.BYTES;
+            MappedByteBuffer inMap = src.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+            MappedByteBuffer outMap = dst.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+            score(inMap.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer(),
+                  outMap.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+            done += len;
+        }
+    }
+
+    /**
+     * Usage: java BatchScorer <path-to-insurance.csv> <charges> <predictions.f64>
+     * Fits Feature 22 on the CSV, then scores the charges (a .f64 file of little-endian doubles,
+     * or a text file with one value per line) into predictions.f64.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: java BatchScorer <path-to-insurance.csv> <charges(.f64|text)> <predictions.f64>");
+            System.exit(2);
+        }
+        FeatureAggregator agg = new FeatureAggregator(5);
+        Driver.streamFirstN(args[0], Long.MAX_VALUE, agg);
+        OnlineRegression reg = agg.regionFit;
+        if (reg.n < 2) {
+            System.err.println("Not enough data to compute regression.");
+            System.exit(1);
+        }
+        BatchScorer scorer = new BatchScorer(Driver.fitSimpleLinearRegression(reg));
+        Path out = Paths.get(args[2]);
+        long n;
+        if (args[1].endsWith(".f64")) {
+            n = scorer.scoreFile(Paths.get(args[1]), out);
+        } else {
+            double[] x = Driver.readChargesArray(args[1]);
+            scorer.score(x, x);
+            writeDoubles(x, out);
+            n = x.length;
+        }
+        System.out.printf(Locale.US, "Scored %d charges with a = %.8f, b = %.12f into %s%n", n, scorer.a, scorer.b, out);
+    }
+
+    /** Writes values as little-endian doubles (the .f64 layout). */
+    static void writeDoubles(double[] values, Path out) throws IOException {
+        try (FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int done = 0; done < values.length; ) {
+                int len = Math.min(CHUNK_VALUES, values.length - done);
+                MappedByteBuffer map = dst.map(FileChannel.MapMode.READ_WRITE, (long) done * Double.BYTES,
+                        (long) len * Double.BYTES);
+                map.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(values, done, len);
+                done += len;
+            }
+        }
+    }
+}
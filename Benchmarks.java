@@ -0,0 +1,387 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Timing harness for the hot paths (plain JDK, no benchmark framework: the project takes
+ * no external libraries). Each benchmark is warmed up, then timed for a fixed wall-clock
+ * budget; heap allocation per operation comes from the thread allocation counter and GC
+ * activity from the collector MXBeans.
+ * Synthetic datasets come from SyntheticGenerator, learned from insurance.csv unless a
+ * model CSV is given.
+ * Usage: java Benchmarks suite [max-rows] [seconds-per-benchmark] [model.csv]
+ *        java Benchmarks parse <path-to-insurance.csv> [repetitions]
+ *        java Benchmarks alloc [values]
+ *        java Benchmarks score [values] [repetitions]
+ *        java Benchmarks http [rows] [clients] [requests-per-client]
+ */
+final class Benchmarks {
+    static final String DEFAULT_MODEL = "insurance.csv";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 1 && args[0].equals("suite")) {
+            benchSuite(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000,
+                       args.length > 2 ? Double.parseDouble(args[2]) : 2.0,
+                       SyntheticGenerator.learn(args.length > 3 ? args[3] : DEFAULT_MODEL));
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("alloc")) {
+            benchAlloc(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("score")) {
+            benchScore(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000,
+                       args.length > 2 ? Integer.parseInt(args[2]) : 20);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("http")) {
+            benchHttp(args.length > 1 ? Integer.parseInt(args[1]) : 100_000,
+                      args.length > 2 ? Integer.parseInt(args[2]) : 1000,
+                      args.length > 3 ? Integer.parseInt(args[3]) : 20);
+            return;
+        }
+        if (args.length < 2 || !args[0].equals("parse")) {
+            System.err.println("Usage: java Benchmarks suite [max-rows] [seconds-per-benchmark] [model.csv]");
+            System.err.println("       java Benchmarks parse <path-to-insurance.csv> [repetitions]");
+            System.err.println("       java Benchmarks alloc [values]");
+            System.err.println("       java Benchmarks score [values] [repetitions]");
+            System.err.println("       java Benchmarks http [rows] [clients] [requests-per-client]");
+            System.exit(2);
+        }
+        int reps = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        benchParse(args[1], reps);
+    }
+
+    // ---------- Suite: loading, aggregation and regression over synthetic datasets ----------
+
+    static final int[] SUITE_ROWS = {1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+
+    /**
+     * Runs every hot path on synthetic datasets of 1K rows up to maxRows (10M rows need
+     * about 4 GB of heap for the List<InsuranceRecord> variants), generated by model with a
+     * fixed seed.
+     */
+    static void benchSuite(int maxRows, double seconds, SyntheticGenerator model) throws IOException {
+        System.out.printf("%10s  %-40s %12s %10s %14s %8s %8s%n",
+                "rows", "benchmark", "ops/s", "ns/row", "B/op", "gc.count", "gc.ms");
+        for (int rows : SUITE_ROWS) {
+            if (rows > maxRows) break;
+            Path csv = Files.createTempFile("insurance-" + rows, ".csv");
+            try {
+                model.write(csv, rows, 42, Runtime.getRuntime().availableProcessors());
+                String path = csv.toString();
+                List<Driver.InsuranceRecord> records = Driver.loadFirstN(path, rows);
+                InsuranceTable table = Driver.loadTable(path, rows);
+                List<Double> xs = new ArrayList<>(rows), ys = new ArrayList<>(rows);
+                double[] x = new double[rows], y = new double[rows];
+                for (int i = 0; i < rows; i++) {
+                    xs.add(x[i] = table.charges[i]);
+                    ys.add(y[i] = table.regionCode(i));
+                }
+
+                run(rows, seconds, "loadFirstN", () -> Driver.loadFirstN(path, rows));
+                run(rows, seconds, "loadTable", () -> Driver.loadTable(path, rows));
+                run(rows, seconds, "computeFeature02Stats(List)", () -> Driver.computeFeature02Stats(records));
+                run(rows, seconds, "computeFeature02Stats(table)", () -> Driver.computeFeature02Stats(table));
+                run(rows, seconds, "feature04_bmiBins(List)", () -> Driver.feature04_bmiBins(records, 5));
+                run(rows, seconds, "feature04_bmiBins(table)", () -> Driver.feature04_bmiBins(table, 5));
+                run(rows, seconds, "feature15_regionsByAvgChargesDesc(List)",
+                        () -> Driver.feature15_regionsByAvgChargesDesc(records));
+                run(rows, seconds, "feature15_regionsByAvgChargesDesc(table)",
+                        () -> Driver.feature15_regionsByAvgChargesDesc(table));
+                run(rows, seconds, "feature20 fitRegressionBMI(List)", () -> Driver.fitRegressionBMI(records));
+                run(rows, seconds, "feature20 fitRegressionBMI(table)", () -> Driver.fitRegressionBMI(table));
+                run(rows, seconds, "fitSimpleLinearRegression(List)", () -> Driver.fitSimpleLinearRegression(xs, ys));
+                run(rows, seconds, "fitSimpleLinearRegression(double[])", () -> Driver.fitSimpleLinearRegression(x, y));
+                run(rows, seconds, "FeatureAggregator (features 02-22)", () -> {
+                    FeatureAggregator agg = new FeatureAggregator(5);
+                    agg.accept(table);
+                    return agg;
+                });
+            } finally {
+                Files.deleteIfExists(csv);
+            }
+        }
+    }
+
+    interface Op { Object run() throws IOException; }
+
+    static volatile Object blackhole;
+
+    /** Warms op up for half the budget, then times it for the full budget (at least 3 calls). */
+    private static void run(int rows, double seconds, String name, Op op) throws IOException {
+        long budget = (long) (seconds * 1e9);
+        for (long end = System.nanoTime() + budget / 2; System.nanoTime() < end; ) blackhole = op.run();
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long gcCount0 = gcCount(), gcTime0 = gcTime();
+        long bytes0 = mx.getThreadAllocatedBytes(tid);
+        long ops = 0, t0 = System.nanoTime(), t1;
+        do {
+            blackhole = op.run();
+            ops++;
+            t1 = System.nanoTime();
+        } while (t1 - t0 < budget || ops < 3);
+        long bytes = mx.getThreadAllocatedBytes(tid) - bytes0;
+        double nsPerOp = (double) (t1 - t0) / ops;
+        System.out.printf("%10d  %-40s %12.1f %10.2f %14.0f %8d %8d%n", rows, name,
+                1e9 / nsPerOp, nsPerOp / rows, (double) bytes / ops, gcCount() - gcCount0, gcTime() - gcTime0);
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    private static long gcTime() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) ms += Math.max(0, gc.getCollectionTime());
+        return ms;
+    }
+
+    // ---------- CSV parsing: String.split loop vs byte-level parser ----------
+
+    static void benchParse(String csvPath, int reps) throws IOException {
+        System.out.printf("%-24s %12s %14s%n", "loader", "rows", "rows/s");
+        report("split (before)", csvPath, reps, () -> loadTableSplit(csvPath, Integer.MAX_VALUE).size());
+        report("CsvRowParser (after)", csvPath, reps, () -> Driver.loadTable(csvPath, Integer.MAX_VALUE).size());
+        int threads = Runtime.getRuntime().availableProcessors();
+        report("mmap x" + threads + " threads", csvPath, reps,
+                () -> ParallelCsvLoader.load(csvPath, Integer.MAX_VALUE, threads).size());
+    }
+
+    interface Loader { int load() throws IOException; }
+
+    private static void report(String name, String csvPath, int reps, Loader loader) throws IOException {
+        for (int i = 0; i < Math.max(1, reps / 4); i++) loader.load(); // warm-up
+        long rows = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < reps; i++) rows += loader.load();
+        double secs = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("%-24s %12d %14.0f%n", name, rows, rows / secs);
+    }
+
+    // ---------- Feature 22 inputs: List<Double> vs double[] ----------
+
+    /**
+     * Reads a charges file of the given size, fits region_code ~ charges and scores every
+     * value, once through the boxed List<Double> API and once through the primitive one,
+     * and reports heap bytes allocated per value.
+     */
+    static void benchAlloc(int values) throws IOException {
+        Path file = Files.createTempFile("charges", ".txt");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(file)) {
+                for (int i = 0; i < values; i++) {
+                    w.write(String.format(Locale.US, "%.2f", 1000 + (i * 7919L % 60000) + (i % 100) / 100.0));
+                    w.newLine();
+                }
+            }
+            String path = file.toString();
+            System.out.printf("%-24s %12s %14s %12s%n", "feature 22 inputs", "values", "bytes/value", "ms");
+            for (int round = 0; round < 3; round++) { // the last round is reported
+                boolean last = round == 2;
+                measure("List<Double> (before)", values, last, () -> {
+                    List<Double> x = readChargesFileStreams(path);
+                    List<Double> y = new ArrayList<>(x.size());
+                    for (int i = 0; i < x.size(); i++) y.add((double) (i & 3));
+                    Driver.RegressionStats st = Driver.fitSimpleLinearRegression(x, y);
+                    double sum = 0;
+                    for (double v : x) sum += st.a + st.b * v;
+                    return sum;
+                });
+                measure("double[] (after)", values, last, () -> {
+                    double[] x = Driver.readChargesArray(path);
+                    double[] y = new double[x.length];
+                    for (int i = 0; i < x.length; i++) y[i] = i & 3;
+                    Driver.RegressionStats st = Driver.fitSimpleLinearRegression(x, y);
+                    double sum = 0;
+                    for (double v : x) sum += st.a + st.b * v;
+                    return sum;
+                });
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // ---------- Feature 22 scoring: per-value loop vs BatchScorer ----------
+
+    static void benchScore(int values, int reps) throws IOException {
+        double[] x = new double[values];
+        for (int i = 0; i < values; i++) x[i] = 1000 + (i * 7919L % 60000) + (i % 100) / 100.0;
+        BatchScorer scorer = new BatchScorer(1.29, 1.87e-5);
+        double[] expected = new double[values], out = new double[values];
+        for (int i = 0; i < values; i++) expected[i] = scorer.score(x[i]);
+
+        Path in = Files.createTempFile("charges", ".f64"), outFile = Files.createTempFile("pred", ".f64");
+        try {
+            BatchScorer.writeDoubles(x, in);
+            System.out.printf("%-24s %12s %14s%n", "scorer", "values", "values/s");
+            for (int round = 0; round < 2; round++) { // the last round is reported
+                boolean last = round == 1;
+                time("per-value score(x)", values, reps, last, () -> {
+                    for (int i = 0; i < values; i++) out[i] = scorer.score(x[i]);
+                });
+                time("BatchScorer double[]", values, reps, last, () -> scorer.score(x, out));
+                time("BatchScorer mmap file", values, Math.max(1, reps / 4), last, () -> scorer.scoreFile(in, outFile));
+            }
+            double[] fromFile = new double[values];
+            java.nio.ByteBuffer bytes = java.nio.ByteBuffer.wrap(Files.readAllBytes(outFile)).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+            bytes.asDoubleBuffer().get(fromFile);
+            scorer.score(x, out);
+            System.out.println("bit-identical to scalar: "
+                    + (java.util.Arrays.equals(expected, out) && java.util.Arrays.equals(expected, fromFile)));
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(outFile);
+        }
+    }
+
+    // ---------- Query service: concurrent requests against QueryServer ----------
+
+    static final String[] HTTP_PATHS = {
+            "/stats", "/histogram/age?bin=5", "/histogram/bmi", "/regions/avg-charges", "/regression/bmi", "/features"};
+
+    /**
+     * Serves a synthetic dataset (learned from DEFAULT_MODEL) with QueryServer on a free loopback port and sends
+     * clients * perClient GET requests from clients concurrent callers, cycling through
+     * HTTP_PATHS. Reports throughput and latency percentiles of the timed round.
+     */
+    static void benchHttp(int rows, int clients, int perClient) throws IOException {
+        Path csv = Files.createTempFile("insurance-" + rows, ".csv");
+        try {
+            SyntheticGenerator.learn(DEFAULT_MODEL).write(csv, rows, 42, Runtime.getRuntime().availableProcessors());
+            InsuranceTable table = Driver.loadTable(csv.toString(), rows);
+            FeatureAggregator agg = new FeatureAggregator(5);
+            agg.accept(table);
+            QueryServer server = new QueryServer(table, agg, 0);
+            server.start();
+            ExecutorService callers = Executors.newFixedThreadPool(clients); // one blocking caller per client
+            try {
+                HttpClient client = HttpClient.newHttpClient();
+                String base = "http://127.0.0.1:" + server.port();
+                System.out.printf("%10s %8s %10s %12s %10s %10s %10s%n",
+                        "rows", "clients", "requests", "req/s", "p50.us", "p99.us", "max.us");
+                for (int round = 0; round < 2; round++) { // the first round warms up
+                    long[] latencies = new long[clients * perClient];
+                    List<Future<?>> done = new ArrayList<>(clients);
+                    long t0 = System.nanoTime();
+                    for (int c = 0; c < clients; c++) {
+                        int first = c * perClient;
+                        done.add(callers.submit(() -> {
+                            for (int i = 0; i < perClient; i++) {
+                                URI uri = URI.create(base + HTTP_PATHS[(first + i) % HTTP_PATHS.length]);
+                                long s = System.nanoTime();
+                                HttpResponse<String> r = client.send(HttpRequest.newBuilder(uri).build(),
+                                        HttpResponse.BodyHandlers.ofString());
+                                latencies[first + i] = System.nanoTime() - s;
+                                if (r.statusCode() != 200) throw new IOException(uri + " -> " + r.statusCode());
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> f : done) f.get();
+                    double secs = (System.nanoTime() - t0) / 1e9;
+                    if (round == 1) {
+                        Arrays.sort(latencies);
+                        int n = latencies.length;
+                        System.out.printf("%10d %8d %10d %12.0f %10.0f %10.0f %10.0f%n", rows, clients, n, n / secs,
+                                latencies[n / 2] / 1e3, latencies[Math.min(n - 1, (int) (n * 0.99))] / 1e3,
+                                latencies[n - 1] / 1e3);
+                    }
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException(e);
+            } finally {
+                server.stop();
+                callers.shutdownNow();
+            }
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    interface Step { void run() throws IOException; }
+
+    private static void time(String name, int values, int reps, boolean print, Step step) throws IOException {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < reps; i++) step.run();
+        double secs = (System.nanoTime() - t0) / 1e9;
+        if (print) System.out.printf("%-24s %12d %14.0f%n", name, values, (double) values * reps / secs);
+    }
+
+    interface Task { double run() throws IOException; }
+
+    static double sink;
+
+    private static void measure(String name, int values, boolean print, Task task) throws IOException {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long b0 = mx.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        sink += task.run();
+        long t1 = System.nanoTime();
+        long bytes = mx.getThreadAllocatedBytes(tid) - b0;
+        if (print) System.out.printf("%-24s %12d %14.1f %12.1f%n", name, values, (double) bytes / values, (t1 - t0) / 1e6);
+    }
+
+    /** The previous readAllLines + stream readChargesFile, kept as the baseline. */
+    static List<Double> readChargesFileStreams(String path) throws IOException {
+        return Files.readAllLines(Paths.get(path)).stream()
+                .map(String::trim)
+                .filter(s -> !s.isEmpty() && !s.startsWith("#"))
+                .map(s -> {
+                    try { return Double.parseDouble(s); }
+                    catch (NumberFormatException e) { return null; }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /** The previous readLine + split + trim + parse loader, kept as the baseline. */
+    static InsuranceTable loadTableSplit(String csvPath, int N) throws IOException {
+        InsuranceTable out = new InsuranceTable();
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(csvPath))) {
+            String header = br.readLine();
+            if (header == null) throw new IOException("Empty CSV (no header).");
+            String line;
+            while ((line = br.readLine()) != null && out.size() < N) {
+                if (line.isEmpty()) continue;
+                String[] parts = line.split(",", -1);
+                if (parts.length < 7) continue;
+                out.add(
+                    Integer.parseInt(parts[0].trim()),
+                    parts[1].trim(),
+                    Double.parseDouble(parts[2].trim()),
+                    Integer.parseInt(parts[3].trim()),
+                    parts[4].trim(),
+                    parts[5].trim(),
+                    Double.parseDouble(parts[6].trim())
+                );
+            }
+        }
+        return out;
+    }
+}
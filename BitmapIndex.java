@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Bitmap index over one version of an InsuranceTable: a RowBitmap per dictionary code of
+ * smoker, sex and region, per children value, per age value and per 1-unit BMI bin. A filter
+ * resolves to a RowBitmap by OR-ing the bitmaps of the values it accepts (and AND-ing
+ * filters on different columns), and only the selected rows are read to aggregate.
+ *
+ * Built in one pass over the table by InsuranceTable.index() and shared read-only.
+ */
+final class BitmapIndex {
+    final InsuranceTable table;
+    final long version;
+    final RowBitmap all;
+    private final RowBitmap[] smoker, sex, region; // by dictionary code
+    private final NavigableMap<Integer, RowBitmap> children = new TreeMap<>();
+    private final NavigableMap<Integer, RowBitmap> age = new TreeMap<>();
+    private final NavigableMap<Integer, RowBitmap> bmi = new TreeMap<>(); // by floor(bmi)
+    private final RowBitmap bmiNaN;
+
+    BitmapIndex(InsuranceTable t) {
+        table = t;
+        version = t.version();
+        int n = t.size();
+        RowBitmap.Builder[] smokerB = builders(t.smokerDict.size()), sexB = builders(t.sexDict.size());
+        RowBitmap.Builder[] regionB = builders(t.regionDict.size());
+        Map<Integer, RowBitmap.Builder> childrenB = new TreeMap<>(), ageB = new TreeMap<>(), bmiB = new TreeMap<>();
+        RowBitmap.Builder allB = new RowBitmap.Builder(), nanB = new RowBitmap.Builder();
+        for (int i = 0; i < n; i++) {
+            allB.add(i);
+            smokerB[t.smokerCode(i)].add(i);
+            sexB[t.sexCode(i)].add(i);
+            regionB[t.regionCode(i)].add(i);
+            childrenB.computeIfAbsent(t.children[i], k -> new RowBitmap.Builder()).add(i);
+            ageB.computeIfAbsent(t.age[i], k -> new RowBitmap.Builder()).add(i);
+            double v = t.bmi[i];
+            if (Double.isNaN(v)) nanB.add(i);
+            else bmiB.computeIfAbsent((int) Math.floor(v), k -> new RowBitmap.Builder()).add(i);
+        }
+        all = allB.build();
+        smoker = build(smokerB);
+        sex = build(sexB);
+        region = build(regionB);
+        childrenB.forEach((k, b) -> children.put(k, b.build()));
+        ageB.forEach((k, b) -> age.put(k, b.build()));
+        bmiB.forEach((k, b) -> bmi.put(k, b.build()));
+        bmiNaN = nanB.build();
+    }
+
+    private static RowBitmap.Builder[] builders(int n) {
+        RowBitmap.Builder[] out = new RowBitmap.Builder[n];
+        for (int i = 0; i < n; i++) out[i] = new RowBitmap.Builder();
+        return out;
+    }
+
+    private static RowBitmap[] build(RowBitmap.Builder[] builders) {
+        RowBitmap[] out = new RowBitmap[builders.length];
+        for (int i = 0; i < out.length; i++) out[i] = builders[i].build();
+        return out;
+    }
+
+    // ---------- Filters ----------
+
+    /** Rows whose smoker value is "yes" (any case) when yes, every other row otherwise. */
+    RowBitmap smoker(boolean yes) {
+        return codes(smoker, table.smokerDict, v -> "yes".equalsIgnoreCase(v) == yes);
+    }
+
+    /** Rows whose lower-cased sex value passes test. */
+    RowBitmap sex(Predicate<String> test) {
+        return codes(sex, table.sexDict, v -> test.test(v.toLowerCase()));
+    }
+
+    /** Rows whose lower-cased region passes test. */
+    RowBitmap region(Predicate<String> test) {
+        return codes(region, table.regionDict, v -> test.test(v.toLowerCase()));
+    }
+
+    private static RowBitmap codes(RowBitmap[] byCode, InsuranceTable.Dictionary dict, Predicate<String> test) {
+        boolean[] keep = dict.flags(test);
+        List<RowBitmap> parts = new ArrayList<>();
+        for (int c = 0; c < byCode.length; c++) if (keep[c]) parts.add(byCode[c]);
+        return RowBitmap.or(parts);
+    }
+
+    /** Rows with lo <= children <= hi. */
+    RowBitmap children(int lo, int hi) {
+        return lo > hi ? RowBitmap.EMPTY : RowBitmap.or(children.subMap(lo, true, hi, true).values());
+    }
+
+    /** Rows with lo <= age <= hi. */
+    RowBitmap age(int lo, int hi) {
+        return lo > hi ? RowBitmap.EMPTY : RowBitmap.or(age.subMap(lo, true, hi, true).values());
+    }
+
+    /** Per-age bitmaps, ascending by age. */
+    NavigableMap<Integer, RowBitmap> ages() { return age; }
+
+    /**
+     * Rows with lo <= bmi < hi, or lo <= bmi <= hi when hiInclusive. Bins strictly inside the
+     * range are taken whole; only the rows of the two edge bins are checked against the bounds.
+     */
+    RowBitmap bmi(double lo, double hi, boolean hiInclusive) {
+        if (!(lo <= hi)) return RowBitmap.EMPTY;
+        int loBin = (int) Math.floor(lo), hiBin = (int) Math.floor(hi);
+        List<RowBitmap> parts = new ArrayList<>();
+        for (Map.Entry<Integer, RowBitmap> e : bmi.subMap(loBin, true, hiBin, true).entrySet()) {
+            int bin = e.getKey();
+            if (bin > loBin && bin < hiBin) {
+                parts.add(e.getValue());
+            } else {
+                double[] v = table.bmi;
+                parts.add(e.getValue().filter(i -> v[i] >= lo && (hiInclusive ? v[i] <= hi : v[i] < hi)));
+            }
+        }
+        return RowBitmap.or(parts);
+    }
+
+    /** Rows whose bmi is NaN, which no bmi range selects. */
+    RowBitmap bmiNaN() { return bmiNaN; }
+
+    // ---------- Aggregates over selected rows ----------
+
+    /** Aggregate of the selected rows, added in row order; NaN for an empty selection (count is 0). */
+    double aggregate(RowBitmap rows, GroupBy.Agg agg) {
+        if (agg.kind == GroupBy.Kind.COUNT) return rows.cardinality();
+        int[] selected = rows.toArray();
+        if (selected.length == 0) return Double.NaN;
+        double[] values = new double[Math.min(selected.length, 4096)];
+        double acc = agg.kind == GroupBy.Kind.MIN ? Double.POSITIVE_INFINITY
+                : agg.kind == GroupBy.Kind.MAX ? Double.NEGATIVE_INFINITY : 0.0;
+        for (int from = 0; from < selected.length; from += values.length) {
+            int len = Math.min(values.length, selected.length - from);
+            agg.column.gather(table, selected, from, len, values);
+            switch (agg.kind) {
+                case MIN: for (int i = 0; i < len; i++) if (values[i] < acc) acc = values[i]; break;
+                case MAX: for (int i = 0; i < len; i++) if (values[i] > acc) acc = values[i]; break;
+                default:  for (int i = 0; i < len; i++) acc += values[i]; break;
+            }
+        }
+        return agg.kind == GroupBy.Kind.AVG ? acc / selected.length : acc;
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapIndex[" + all.cardinality() + " rows, " + age.size() + " ages, " + bmi.size() + " bmi bins]";
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Byte-level parser for insurance CSV rows. Fields are located by scanning for commas,
+ * numbers are parsed straight from the bytes and categorical values are matched against
+ * the table dictionaries, so a data line costs no String, array or record allocation.
+ * Behaves like the old readLine/split/trim/parse loop: lines end at \n, \r or \r\n,
+ * empty lines and lines with fewer than 7 fields are skipped, and unparseable numbers
+ * throw the same NumberFormatException.
+ */
+final class CsvRowParser implements Closeable {
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream in;
+    private byte[] block;
+    private ByteBuffer view;
+    private int pos = 0, limit = 0;
+    private long base = 0; // stream offset of block[0]
+    private boolean eof = false;
+    private final int[] fieldEnd = new int[7];
+
+    CsvRowParser(InputStream in) {
+        this(in, 0);
+    }
+
+    /** A parser for a stream that starts at byte startOffset of the file (for position()). */
+    CsvRowParser(InputStream in, long startOffset) {
+        this.in = in;
+        this.block = new byte[BLOCK_SIZE];
+        this.view = ByteBuffer.wrap(block);
+        this.base = startOffset;
+    }
+
+    /** File offset just past the last line consumed so far. */
+    long position() {
+        return base + pos;
+    }
+
+    /** A parser for caller-supplied buffers only (see parseLines); skipHeader/fill are not available. */
+    CsvRowParser() {
+        this.in = null;
+    }
+
+    /** Skips the header line; throws if the input is completely empty. */
+    void skipHeader() throws IOException {
+        while (true) {
+            for (int i = pos; i < limit; i++) {
+                byte b = block[i];
+                if (b == '\n' || b == '\r') { pos = i + 1; return; }
+            }
+            if (eof) {
+                if (limit == 0) throw new IOException("Empty CSV (no header).");
+                pos = limit;
+                return;
+            }
+            refill();
+        }
+    }
+
+    /**
+     * Parses rows into out until it holds rowLimit rows or the input ends.
+     * Returns false once the input is exhausted.
+     */
+    boolean fill(InsuranceTable out, int rowLimit) throws IOException {
+        return fill(out, rowLimit, true);
+    }
+
+    /**
+     * Like fill(out, rowLimit), but unless includeUnterminated is set a last line without a
+     * line terminator (one that may still be being appended) is left unconsumed; a later
+     * fill(out, rowLimit) parses it.
+     */
+    boolean fill(InsuranceTable out, int rowLimit, boolean includeUnterminated) throws IOException {
+        while (out.size() < rowLimit) {
+            pos = parseLines(view, pos, limit, eof && includeUnterminated, out, rowLimit);
+            if (out.size() >= rowLimit) break;
+            if (eof) return false;
+            refill();
+        }
+        return !(eof && pos == limit);
+    }
+
+    /**
+     * Reads one number per line into a primitive array, like trim + parseDouble on each line:
+     * blank lines, lines starting with '#' and lines that do not parse are skipped.
+     */
+    double[] readDoubleLines() throws IOException {
+        double[] out = new double[64];
+        int n = 0;
+        while (true) {
+            int p = pos;
+            while (p < limit) {
+                int end = p;
+                while (end < limit && block[end] != '\n' && block[end] != '\r') end++;
+                if (end == limit && !eof) break;
+                int from = p, to = end;
+                while (from < to && (block[from] & 0xFF) <= ' ') from++;
+                while (to > from && (block[to - 1] & 0xFF) <= ' ') to--;
+                if (from < to && block[from] != '#') {
+                    try {
+                        double v = parseDouble(view, from, to);
+                        if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                        out[n++] = v;
+                    } catch (NumberFormatException e) {
+                        // skip the line
+                    }
+                }
+                p = end < limit ? end + 1 : end;
+            }
+            pos = p;
+            if (eof) return Arrays.copyOf(out, n);
+            refill();
+        }
+    }
+
+    private void refill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(block, pos, block, 0, limit - pos);
+            limit -= pos;
+            base += pos;
+            pos = 0;
+        }
+        if (limit == block.length) { // a single line longer than the block
+            block = Arrays.copyOf(block, block.length * 2);
+            view = ByteBuffer.wrap(block);
+        }
+        int n = in.read(block, limit, block.length - limit);
+        if (n < 0) eof = true;
+        else limit += n;
+    }
+
+    /**
+     * Parses the lines in buf[from, to) into out, stopping once out holds rowLimit rows.
+     * Unless atEnd is set, a trailing line without a terminator is left unconsumed.
+     * Returns the index just past the last consumed line.
+     */
+    int parseLines(ByteBuffer buf, int from, int to, boolean atEnd, InsuranceTable out, int rowLimit)
+            throws IOException {
+        int p = from;
+        while (p < to && out.size() < rowLimit) {
+            int end = p;
+            while (end < to) {
+                byte b = buf.get(end);
+                if (b == '\n' || b == '\r') break;
+                end++;
+            }
+            if (end == to && !atEnd) break;
+            if (end > p) parseLine(buf, p, end, out);
+            p = end < to ? end + 1 : end;
+        }
+        return p;
+    }
+
+    private void parseLine(ByteBuffer buf, int start, int end, InsuranceTable out) throws IOException {
+        int commas = 0;
+        for (int i = start; i < end && commas < 7; i++) {
+            if (buf.get(i) == ',') fieldEnd[commas++] = i;
+        }
+        if (commas < 6) return;             // skip malformed lines
+        if (commas == 6) fieldEnd[6] = end; // 7th field runs to end of line
+
+        int age = parseInt(buf, start, fieldEnd[0]);
+        double bmi = parseDouble(buf, fieldEnd[1] + 1, fieldEnd[2]);
+        int children = parseInt(buf, fieldEnd[2] + 1, fieldEnd[3]);
+        double charges = parseDouble(buf, fieldEnd[5] + 1, fieldEnd[6]);
+        out.addEncoded(age,
+                encode(out.sexDict, buf, fieldEnd[0] + 1, fieldEnd[1]),
+                bmi, children,
+                encode(out.smokerDict, buf, fieldEnd[3] + 1, fieldEnd[4]),
+                encode(out.regionDict, buf, fieldEnd[4] + 1, fieldEnd[5]),
+                charges);
+    }
+
+    // ---------- Field parsers (bytes are trimmed like String.trim()) ----------
+
+    private static int encode(InsuranceTable.Dictionary dict, ByteBuffer buf, int from, int to) throws IOException {
+        while (from < to && (buf.get(from) & 0xFF) <= ' ') from++;
+        while (to > from && (buf.get(to - 1) & 0xFF) <= ' ') to--;
+        return dict.encode(buf, from, to);
+    }
+
+    static int parseInt(ByteBuffer buf, int from, int to) {
+        while (from < to && (buf.get(from) & 0xFF) <= ' ') from++;
+        while (to > from && (buf.get(to - 1) & 0xFF) <= ' ') to--;
+        int i = from;
+        boolean neg = false;
+        if (i < to && (buf.get(i) == '-' || buf.get(i) == '+')) neg = buf.get(i++) == '-';
+        if (i == to || to - i > 9) return Integer.parseInt(text(buf, from, to));
+        int v = 0;
+        for (; i < to; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) return Integer.parseInt(text(buf, from, to));
+            v = v * 10 + d;
+        }
+        return neg ? -v : v;
+    }
+
+    /**
+     * Plain decimals with at most 18 significant digits, a mantissa below 2^53 and at most
+     * 22 fraction digits are exact as m / 10^k (one correctly rounded division), which is what
+     * Double.parseDouble returns. Anything else (exponents, NaN, hex, long inputs) falls back to it.
+     */
+    static double parseDouble(ByteBuffer buf, int from, int to) {
+        while (from < to && (buf.get(from) & 0xFF) <= ' ') from++;
+        while (to > from && (buf.get(to - 1) & 0xFF) <= ' ') to--;
+        int i = from;
+        boolean neg = false;
+        if (i < to && (buf.get(i) == '-' || buf.get(i) == '+')) neg = buf.get(i++) == '-';
+        long m = 0;
+        int digits = 0, scale = 0;
+        boolean any = false, dot = false;
+        for (; i < to; i++) {
+            byte c = buf.get(i);
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (dot) scale++;
+                if (m == 0 && c == '0') continue; // leading zeros are not significant
+                if (++digits > 18) return Double.parseDouble(text(buf, from, to));
+                m = m * 10 + (c - '0');
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return Double.parseDouble(text(buf, from, to));
+            }
+        }
+        if (!any || m > (1L << 53) || scale >= POW10.length) return Double.parseDouble(text(buf, from, to));
+        double v = scale == 0 ? (double) m : m / POW10[scale];
+        return neg ? -v : v;
+    }
+
+    private static String text(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buf.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) in.close();
+    }
+}
@@ -1,16 +1,18 @@
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class Driver {
 
@@ -24,6 +26,9 @@ static class InsuranceRecord {
         String smoker;
         String region;
         double charges;
+        // Derived once from smoker/region so feature loops test flags instead of folding case per row
+        final boolean isSmoker;   // "yes" in any case
+        final Region regionInfo;
 
         InsuranceRecord(int age, String sex, double bmi, int children, String smoker, String region, double charges) {
             this.age = age;
@@ -33,6 +38,8 @@ static class InsuranceRecord {
             this.smoker = smoker;
             this.region = region;
             this.charges = charges;
+            this.isSmoker = "yes".equalsIgnoreCase(smoker);
+            this.regionInfo = Region.of(region);
         }
 
         @Override
@@ -45,34 +52,43 @@ static class InsuranceRecord {
     }
 
 
-    // ---- Load first N records from CSV ----
-    static List<Driver.InsuranceRecord> loadFirstN(String csvPath, int N) throws IOException {
+    /** Normalized form of a region string, shared by all records with that exact string. */
+    static final class Region {
+        private static final int MAX_CACHED = 1024;
+        private static final Map<String, Region> CACHE = new ConcurrentHashMap<>();
+
+        final String key;           // region.toLowerCase()
+        final boolean south, north; // key contains "south" / "north"
+        final int ordinal;          // REGION_CODE of key, -1 when it has none
+
+        private Region(String region) {
+            key = region.toLowerCase();
+            south = key.contains("south");
+            north = key.contains("north");
+            ordinal = REGION_CODE.getOrDefault(key, -1);
+        }
 
-        List<InsuranceRecord> out = new ArrayList<>();
-        try (BufferedReader br = Files.newBufferedReader(Paths.get(csvPath))) {
-            String header = br.readLine(); // skip header
-            if (header == null) throw new IOException("Empty CSV (no header).");
-
-            String line;
-            int count = 0;
-            while ((line = br.readLine()) != null && count < N) {
-                if (line.isEmpty()) continue;
-                String[] parts = line.split(",", -1); // keep empty trailing fields
-                if (parts.length < 7) continue;       // skip malformed lines
-
-                InsuranceRecord r = new InsuranceRecord(
-                    Integer.parseInt(parts[0].trim()),        // age
-                    parts[1].trim(),                           // sex
-                    Double.parseDouble(parts[2].trim()),       // bmi
-                    Integer.parseInt(parts[3].trim()),         // children
-                    parts[4].trim(),                           // smoker
-                    parts[5].trim(),                           // region
-                    Double.parseDouble(parts[6].trim())        // charges
-                );
-                out.add(r);
-                count++;
+        static Region of(String region) {
+            Region r = CACHE.get(region);
+            if (r == null) {
+                r = new Region(region);
+                if (CACHE.size() < MAX_CACHED) CACHE.putIfAbsent(region, r);
             }
+            return r;
         }
+    }
+
+    // Report output for the bulk printers (Feature 01 and the histograms); replaceable, e.g. to discard output
+    static ReportSink sink = ReportSink.stdout();
+    // Memoized feature results, keyed by dataset version + feature id + arguments
+    static final ResultCache cache = new ResultCache(256);
+
+    // ---- Load first N records from CSV ----
+    // Parsed a streaming batch at a time: the records hold plain Strings, and streamFirstN starts
+    // new dictionaries before they fill up, so any number of distinct values loads.
+    static List<Driver.InsuranceRecord> loadFirstN(String csvPath, int N) throws IOException {
+        List<Driver.InsuranceRecord> out = new ArrayList<>();
+        streamFirstN(csvPath, N, batch -> out.addAll(batch.toRecords()));
         return out;
     }
 
@@ -83,23 +99,50 @@ static class InsuranceRecord {
         return ages;
     }
 
+    static IntHistogram ageCounts(List<Integer> ages) {
+        IntHistogram freq = new IntHistogram();
+        for (int a : ages) freq.add(a);
+        return freq;
+    }
+
     static void printPerAgeHistogram(List<Integer> ages, int maxWidth) {
-        if (ages.isEmpty()) { System.out.println("No ages to plot."); return; }
-        Map<Integer, Integer> freq = new TreeMap<>();
-        for (int a : ages) freq.merge(a, 1, Integer::sum);
-        int maxCount = freq.values().stream().mapToInt(Integer::intValue).max().orElse(1);
+        printPerAgeHistogram(ageCounts(ages), maxWidth);
+    }
 
-        System.out.println("\nHorizontal Histogram (per age):");
-        for (Map.Entry<Integer, Integer> e : freq.entrySet()) {
-            int age = e.getKey(), count = e.getValue();
-            System.out.printf("%3d: %s (%d)%n", age, bar(count, maxCount, maxWidth), count);
-        }
+    /** Same output as printPerAgeHistogram(ages, ...) given the per-age counts. */
+    static void printPerAgeHistogram(IntHistogram freq, int maxWidth) {
+        if (freq.isEmpty()) { System.out.println("No ages to plot."); return; }
+        int maxCount = freq.maxCount();
+
+        ReportSink out = sink;
+        out.append("\nHorizontal Histogram (per age):").newline();
+        freq.forEach((age, count) -> {
+            out.padInt(age, 3).append(": ").repeat('#', barLength(count, maxCount, maxWidth));
+            out.append(" (").appendInt(count).append(')').newline();
+        });
+        out.flush();
     }
 
     static void printBinnedHistogram(List<Integer> ages, int binSize, int maxWidth) {
-        if (ages.isEmpty()) { System.out.println("No ages to plot."); return; }
-        int min = ages.stream().mapToInt(i -> i).min().orElse(0);
-        int max = ages.stream().mapToInt(i -> i).max().orElse(0);
+        printBinnedHistogram(ageCounts(ages), binSize, maxWidth);
+    }
+
+    /** Same output as printBinnedHistogram(ages, ...) given the per-age counts. */
+    static void printBinnedHistogram(IntHistogram freq, int binSize, int maxWidth) {
+        printAgeBins(ageBins(freq, binSize), binSize, maxWidth);
+    }
+
+    /** Binned age counts of agg ("lo-hi" -> count, ascending), memoized in the result cache. */
+    static Map<String, Integer> ageBins(FeatureAggregator agg, int binSize) {
+        return cache.get(ResultCache.key(agg.version(), "ageBins", binSize),
+                () -> Collections.unmodifiableMap(ageBins(agg.ageCounts, binSize)));
+    }
+
+    /** Groups per-age counts into "lo-hi" bins; empty when there are no ages. */
+    static Map<String, Integer> ageBins(IntHistogram freq, int binSize) {
+        if (freq.isEmpty()) return new LinkedHashMap<>();
+        int min = freq.minKey();
+        int max = freq.maxKey();
 
         int start = (int) Math.floor(min / (double) binSize) * binSize;
         int end   = (int) Math.ceil((max + 1) / (double) binSize) * binSize - 1;
@@ -110,7 +153,7 @@ static class InsuranceRecord {
             bins.put(String.format("%d-%d", lo, hi), 0);
         }
 
-        for (int a : ages) {
+        freq.forEach((a, count) -> {
             int lo = (a / binSize) * binSize;
             int hi = lo + binSize - 1;
             String label = String.format("%d-%d", lo, hi);
@@ -118,44 +161,55 @@ static class InsuranceRecord {
                 if (a < start) label = String.format("%d-%d", start, start + binSize - 1);
                 else label = String.format("%d-%d", end - binSize + 1, end);
             }
-            bins.put(label, bins.get(label) + 1);
-        }
+            bins.put(label, bins.get(label) + count);
+        });
+        return bins;
+    }
+
+    static void printAgeBins(Map<String, Integer> bins, int binSize, int maxWidth) {
+        if (bins.isEmpty()) { System.out.println("No ages to plot."); return; }
 
         int maxCount = bins.values().stream().mapToInt(Integer::intValue).max().orElse(1);
         int labelWidth = bins.keySet().stream().mapToInt(String::length).max().orElse(7);
 
-        System.out.printf("\nHorizontal Histogram (bins, size=%d):%n", binSize);
+        ReportSink out = sink;
+        out.append("\nHorizontal Histogram (bins, size=").appendInt(binSize).append("):").newline();
         for (Map.Entry<String, Integer> e : bins.entrySet()) {
-            String label = e.getKey();
             int count = e.getValue();
-            System.out.printf("%" + labelWidth + "s: %s (%d)%n", label, bar(count, maxCount, maxWidth), count);
+            out.padLeft(e.getKey(), labelWidth).append(": ").repeat('#', barLength(count, maxCount, maxWidth));
+            out.append(" (").appendInt(count).append(')').newline();
         }
+        out.flush();
     }
 
     static String bar(int count, int maxCount, int maxWidth) {
-        if (count <= 0 || maxCount <= 0) return "";
-        int len = (int) Math.round((count * 1.0 / maxCount) * maxWidth);
-        len = Math.max(len, 1); // show at least one '#'
-        char[] arr = new char[len];
+        char[] arr = new char[barLength(count, maxCount, maxWidth)];
         Arrays.fill(arr, '#');
         return new String(arr);
     }
 
+    static int barLength(int count, int maxCount, int maxWidth) {
+        if (count <= 0 || maxCount <= 0) return 0;
+        int len = (int) Math.round((count * 1.0 / maxCount) * maxWidth);
+        return Math.max(len, 1); // show at least one '#'
+    }
+
     // ---------- Children counts ----------
     /** Returns counts keyed by number of children (0,1,2,...) sorted ascending. */
-    static Map<Integer, Integer> childrenCounts(List<InsuranceRecord> records) {
-        Map<Integer, Integer> counts = new TreeMap<>();
+    static IntHistogram childrenCounts(List<InsuranceRecord> records) {
+        IntHistogram counts = new IntHistogram();
         for (InsuranceRecord r : records) {
-            counts.merge(r.children, 1, Integer::sum);
+            counts.add(r.children);
         }
         return counts;
     }
 
-    static void printChildrenCounts(Map<Integer, Integer> counts) {
-        System.out.println("\nTotal records by number of children:");
-        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
-            System.out.printf("children=%d -> %d record(s)%n", e.getKey(), e.getValue());
-        }
+    static void printChildrenCounts(IntHistogram counts) {
+        ReportSink out = sink;
+        out.append("\nTotal records by number of children:").newline();
+        counts.forEach((children, count) ->
+            out.append("children=").appendInt(children).append(" -> ").appendInt(count).append(" record(s)").newline());
+        out.flush();
     }
 
     // ---------- Feature 02: summary stats ----------
@@ -170,6 +224,11 @@ static class InsuranceRecord {
             if (v > max) max = v;
         }
         double avg() { return count == 0 ? 0.0 : sum / count; }
+        void merge(Stats o) {
+            count += o.count; sum += o.sum;
+            if (o.min < min) min = o.min;
+            if (o.max > max) max = o.max;
+        }
     }
 
     static Map<String, Stats> computeFeature02Stats(List<InsuranceRecord> records) {
@@ -199,33 +258,46 @@ static class InsuranceRecord {
         }
     }
 
+    static final double[] REPORT_QUANTILES = {0.5, 0.9, 0.99};
+
+    /** Approximate p50/p90/p99 per sketch (--quantiles). */
+    static void printQuantiles(Map<String, QuantileSketch> sketches) {
+        System.out.println("\nApproximate quantiles (KLL sketch, k=" + QuantileSketch.DEFAULT_K + ", rank error < 1%):");
+        System.out.printf("%-22s %8s %12s %12s %12s%n", "group", "count", "p50", "p90", "p99");
+        System.out.println("--------------------------------------------------------------------");
+        for (Map.Entry<String, QuantileSketch> e : sketches.entrySet()) {
+            QuantileSketch s = e.getValue();
+            double[] q = s.quantiles(REPORT_QUANTILES);
+            System.out.printf("%-22s %8d %12.2f %12.2f %12.2f%n", e.getKey(), s.count(), q[0], q[1], q[2]);
+        }
+    }
+
     // ---------- Feature 04: vertical BMI histogram ----------
-    public static Map<Integer, Integer> feature04_bmiBins(List<InsuranceRecord> records, int binSize) {
-        Map<Integer, Integer> bins = new TreeMap<>();
+    public static IntHistogram feature04_bmiBins(List<InsuranceRecord> records, int binSize) {
+        IntHistogram bins = new IntHistogram();
         for (InsuranceRecord r : records) {
-            int b = ((int) Math.floor(r.bmi / binSize)) * binSize;
-            bins.put(b, bins.getOrDefault(b, 0) + 1);
+            bins.add(((int) Math.floor(r.bmi / binSize)) * binSize);
         }
         return bins;
     }
 
-    public static void printFeature04(Map<Integer, Integer> bins) {
-        int peak = 1;
-        for (int v : bins.values()) peak = Math.max(peak, v);
+    public static void printFeature04(IntHistogram bins) {
+        int[] keys = bins.keys();
+        int[] counts = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) counts[i] = bins.get(keys[i]);
+        int peak = Math.max(1, bins.maxCount());
 
+        ReportSink out = sink;
         for (int level = peak; level >= 1; level--) {
-            StringBuilder row = new StringBuilder();
-            for (int b : bins.keySet()) {
-                int count = bins.get(b);
-                row.append(count >= level ? " # " : "   ");
+            for (int count : counts) {
+                out.append(count >= level ? " # " : "   ");
             }
-            System.out.println(row);
+            out.newline();
         }
-        StringBuilder base = new StringBuilder();
-        for (int b : bins.keySet()) {
-            base.append(String.format("%2d ", b));
+        for (int b : keys) {
+            out.padInt(b, 2).append(' ');
         }
-        System.out.println(base);
+        out.newline().flush();
     }
 
     // ---------- Feature 06: smokers vs non-smokers (vertical) ----------
@@ -234,7 +306,7 @@ static class InsuranceRecord {
         counts.put("smoker", 0);
         counts.put("non-smoker", 0);
         for (InsuranceRecord r : records) {
-            if ("yes".equalsIgnoreCase(r.smoker)) {
+            if (r.isSmoker) {
                 counts.put("smoker", counts.get("smoker") + 1);
             } else {
                 counts.put("non-smoker", counts.get("non-smoker") + 1);
@@ -247,35 +319,25 @@ static class InsuranceRecord {
         int max = 1;
         for (int v : counts.values()) max = Math.max(max, v);
 
+        ReportSink out = sink;
         for (int level = max; level >= 1; level--) {
-            StringBuilder row = new StringBuilder();
-            for (String k : counts.keySet()) {
-                int c = counts.get(k);
-                row.append(c >= level ? " # " : "   ");
+            for (int c : counts.values()) {
+                out.append(c >= level ? " # " : "   ");
             }
-            System.out.println(row);
+            out.newline();
         }
-        System.out.println(" S   NS ");
+        out.append(" S   NS ").newline().flush();
     }
 
         static Map<String,Integer> regionCounts(List<InsuranceRecord> records) {
         Map<String,Integer> m = new TreeMap<>();
-        for (InsuranceRecord r : records) m.merge(r.region.toLowerCase(), 1, Integer::sum);
+        for (InsuranceRecord r : records) m.merge(r.regionInfo.key, 1, Integer::sum);
         return m;
     }
 
 
      static boolean feature07_fairWithin5Percent(List<InsuranceRecord> records) {
-        Map<String,Integer> m = regionCounts(records);
-        int total = m.values().stream().mapToInt(i->i).sum();
-        if (total == 0 || m.isEmpty()) return false;
-        double min = 1.0, max = 0.0;
-        for (int c : m.values()) {
-            double p = c / (double) total;
-            if (p < min) min = p;
-            if (p > max) max = p;
-        }
-        return (max - min) <= 0.05 + 1e-12;
+        return fairWithin5Percent(regionCounts(records));
     }
 
 
@@ -341,9 +403,8 @@ static class InsuranceRecord {
         int otherCount = 0;
 
         for (InsuranceRecord r : records) {
-            if (r.smoker.equalsIgnoreCase("yes")) {
-                String reg = r.region.toLowerCase();
-                if (reg.contains("south")) {
+            if (r.isSmoker) {
+                if (r.regionInfo.south) {
                     southSum += r.charges;
                     southCount++;
                 } else {
@@ -364,7 +425,7 @@ static class InsuranceRecord {
         double sMin=Double.POSITIVE_INFINITY,sMax=Double.NEGATIVE_INFINITY;
         double nMin=Double.POSITIVE_INFINITY,nMax=Double.NEGATIVE_INFINITY;
         for (InsuranceRecord r : records) {
-            if ("yes".equalsIgnoreCase(r.smoker)) {
+            if (r.isSmoker) {
                 sSum += r.charges; sCnt++; if (r.charges<sMin) sMin=r.charges; if (r.charges>sMax) sMax=r.charges;
             } else {
                 nSum += r.charges; nCnt++; if (r.charges<nMin) nMin=r.charges; if (r.charges>nMax) nMax=r.charges;
@@ -379,7 +440,7 @@ static class InsuranceRecord {
     static boolean feature13_smokersLowerBmi(List<InsuranceRecord> records) {
         double sSum=0,nSum=0; int sCnt=0,nCnt=0;
         for (InsuranceRecord r : records) {
-            if ("yes".equalsIgnoreCase(r.smoker)) { sSum+=r.bmi; sCnt++; }
+            if (r.isSmoker) { sSum+=r.bmi; sCnt++; }
             else { nSum+=r.bmi; nCnt++; }
         }
         if (sCnt==0 || nCnt==0) return false;
@@ -388,11 +449,11 @@ static class InsuranceRecord {
 
 
     // ---------- Feature 14: smoker age distribution ----------
-    public static Map<Integer, Integer> feature14_smokerAgeDist(List<InsuranceRecord> records) {
-        Map<Integer, Integer> dist = new TreeMap<>();
+    public static IntHistogram feature14_smokerAgeDist(List<InsuranceRecord> records) {
+        IntHistogram dist = new IntHistogram();
         for (InsuranceRecord r : records) {
-            if (r.smoker.equalsIgnoreCase("yes")) {
-                dist.put(r.age, dist.getOrDefault(r.age, 0) + 1);
+            if (r.isSmoker) {
+                dist.add(r.age);
             }
         }
         return dist;
@@ -401,7 +462,7 @@ static class InsuranceRecord {
     static List<Map.Entry<String,Double>> feature15_regionsByAvgChargesDesc(List<InsuranceRecord> records) {
         Map<String,double[]> acc = new TreeMap<>();
         for (InsuranceRecord r : records) {
-            String k = r.region.toLowerCase();
+            String k = r.regionInfo.key;
             acc.computeIfAbsent(k, t -> new double[2]);
             double[] a = acc.get(k);
             a[0] += r.charges; a[1] += 1.0;
@@ -419,7 +480,7 @@ static class InsuranceRecord {
         int smokerCount = 0, nonCount = 0;
 
         for (InsuranceRecord r : records) {
-            if (r.smoker.equalsIgnoreCase("yes")) {
+            if (r.isSmoker) {
                 smokerSum += r.age;
                 smokerCount++;
             } else {
@@ -436,9 +497,9 @@ static class InsuranceRecord {
     static double[] feature17_southVsNorthSmokingRatesAndAvgAge(List<InsuranceRecord> records) {
         int sCount=0,nCount=0,sSmokers=0,nSmokers=0; double sAgeSum=0,nAgeSum=0;
         for (InsuranceRecord r : records) {
-            String reg = r.region.toLowerCase();
-            if (reg.contains("south")) { sCount++; sAgeSum+=r.age; if ("yes".equalsIgnoreCase(r.smoker)) sSmokers++; }
-            else if (reg.contains("north")) { nCount++; nAgeSum+=r.age; if ("yes".equalsIgnoreCase(r.smoker)) nSmokers++; }
+            Region reg = r.regionInfo;
+            if (reg.south) { sCount++; sAgeSum+=r.age; if (r.isSmoker) sSmokers++; }
+            else if (reg.north) { nCount++; nAgeSum+=r.age; if (r.isSmoker) nSmokers++; }
         }
         double sRate = sCount==0?0:(sSmokers/(double)sCount);
         double nRate = nCount==0?0:(nSmokers/(double)nCount);
@@ -453,11 +514,11 @@ static class InsuranceRecord {
         int southCount = 0, northCount = 0;
 
         for (InsuranceRecord r : records) {
-            String reg = r.region.toLowerCase();
-            if (reg.contains("south")) {
+            Region reg = r.regionInfo;
+            if (reg.south) {
                 southSum += r.bmi;
                 southCount++;
-            } else if (reg.contains("north")) {
+            } else if (reg.north) {
                 northSum += r.bmi;
                 northCount++;
             }
@@ -471,9 +532,9 @@ static class InsuranceRecord {
     static Map<String,Double> feature19_childrenSouthVsNorthAges(List<InsuranceRecord> records) {
         double sKids=0,nKids=0, sAge=0,nAge=0; int sCnt=0,nCnt=0;
         for (InsuranceRecord r : records) {
-            String reg = r.region.toLowerCase();
-            if (reg.contains("south")) { sKids+=r.children; sAge+=r.age; sCnt++; }
-            else if (reg.contains("north")) { nKids+=r.children; nAge+=r.age; nCnt++; }
+            Region reg = r.regionInfo;
+            if (reg.south) { sKids+=r.children; sAge+=r.age; sCnt++; }
+            else if (reg.north) { nKids+=r.children; nAge+=r.age; nCnt++; }
         }
         Map<String,Double> out = new LinkedHashMap<>();
         out.put("south_avg_children", sCnt==0?0:sKids/sCnt);
@@ -486,30 +547,24 @@ static class InsuranceRecord {
 
     // ---------- Feature 20: simple linear regression charges ~ BMI ----------
     public static void feature20_regressionBMI(List<InsuranceRecord> records) {
-        double sumX = 0.0, sumY = 0.0, sumXY = 0.0, sumX2 = 0.0, sumY2 = 0.0;
-        int n = records.size();
-        for (InsuranceRecord r : records) {
-            sumX += r.bmi;
-            sumY += r.charges;
-            sumXY += r.bmi * r.charges;
-            sumX2 += r.bmi * r.bmi;
-            sumY2 += r.charges * r.charges;
-        }
+        printRegressionBMI(fitRegressionBMI(records));
+    }
+
+    // charges ~ bmi co-moments (x = bmi, y = charges)
+    static OnlineRegression fitRegressionBMI(List<InsuranceRecord> records) {
+        OnlineRegression reg = new OnlineRegression();
+        for (InsuranceRecord r : records) reg.add(r.bmi, r.charges);
+        return reg;
+    }
 
-        double denomSlope = (n * sumX2 - sumX * sumX);
-        if (denomSlope == 0.0 || n == 0) {
+    static void printRegressionBMI(OnlineRegression reg) {
+        if (reg.sxx == 0.0 || reg.n == 0) {
             System.out.println("Cannot compute regression: degenerate X variance or no data.");
             return;
         }
-        double slope = (n * sumXY - sumX * sumY) / denomSlope;
-        double intercept = (sumY - slope * sumX) / n;
-
-        double rNum = n * sumXY - sumX * sumY;
-        double rDenTermX = n * sumX2 - sumX * sumX;
-        double rDenTermY = n * sumY2 - sumY * sumY;
-        double rDen = Math.sqrt(Math.max(0.0, rDenTermX * rDenTermY));
-        double r = (rDen != 0.0) ? rNum / rDen : 0.0;
-
+        double slope = reg.slope();
+        double intercept = reg.intercept();
+        double r = reg.r();
         System.out.printf("y = %.2f + %.2f*x, r=%.3f%n", intercept, slope, r);
 
         for (int i = 0; i <= 10; i++) {
@@ -524,20 +579,17 @@ static class InsuranceRecord {
     // ==== MAIN ====
 
     static void feature21_regressionChildren(List<InsuranceRecord> records) {
-        int n = records.size();
-        if (n==0) { System.out.println("No data."); return; }
-        double sx=0, sy=0, sxy=0, sx2=0, sy2=0;
-        for (InsuranceRecord r : records) {
-            double x = r.children, y = r.charges;
-            sx+=x; sy+=y; sxy+=x*y; sx2+=x*x; sy2+=y*y;
-        }
-        double denom = n*sx2 - sx*sx;
-        if (denom==0) { System.out.println("Cannot compute regression."); return; }
-        double slope = (n*sxy - sx*sy)/denom;
-        double intercept = (sy - slope*sx)/n;
-        double rnum = n*sxy - sx*sy;
-        double rden = Math.sqrt((n*sx2 - sx*sx)*(n*sy2 - sy*sy));
-        double r = rden==0?0:rnum/rden;
+        OnlineRegression reg = new OnlineRegression();
+        for (InsuranceRecord r : records) reg.add(r.children, r.charges);
+        printRegressionChildren(reg);
+    }
+
+    static void printRegressionChildren(OnlineRegression reg) {
+        if (reg.n == 0) { System.out.println("No data."); return; }
+        if (reg.sxx == 0) { System.out.println("Cannot compute regression."); return; }
+        double slope = reg.slope();
+        double intercept = reg.intercept();
+        double r = reg.r();
         System.out.printf("y = %.6f + %.6f*x, r=%.6f%n", intercept, slope, r);
         for (int i=0;i<22;i++) {
             double x = i;
@@ -548,7 +600,7 @@ static class InsuranceRecord {
 
     // ---------- Feature 22: simple linear regression charges ~ region (ordinal) ----------
     
-     private static final Map<String, Integer> REGION_CODE = new LinkedHashMap<>();
+     static final Map<String, Integer> REGION_CODE = new LinkedHashMap<>();
     static {
         REGION_CODE.put("northeast", 0);
         REGION_CODE.put("northwest", 1);
@@ -558,7 +610,7 @@ static class InsuranceRecord {
 
     // Container for regression summary
     static class RegressionStats {
-        int n;
+        long n;
         double meanX, meanY;
         double sdX, sdY;
         double covXY;
@@ -569,20 +621,34 @@ static class InsuranceRecord {
     // Compute simple linear regression and Pearson r for lists X (charges) and Y (region code)
     static RegressionStats fitSimpleLinearRegression(List<Double> X, List<Double> Y) {
         if (X.size() != Y.size()) throw new IllegalArgumentException("X and Y sizes differ.");
-        int n = X.size();
-        double sumX = 0, sumY = 0;
-        for (int i = 0; i < n; i++) { sumX += X.get(i); sumY += Y.get(i); }
-        double meanX = sumX / n, meanY = sumY / n;
+        OnlineRegression reg = new OnlineRegression();
+        for (int i = 0; i < X.size(); i++) reg.add(X.get(i), Y.get(i));
+        return fitSimpleLinearRegression(reg);
+    }
 
-        double sxx = 0, syy = 0, sxy = 0;
-        for (int i = 0; i < n; i++) {
-            double dx = X.get(i) - meanX;
-            double dy = Y.get(i) - meanY;
-            sxx += dx * dx;
-            syy += dy * dy;
-            sxy += dx * dy;
-        }
+    // Primitive overloads: no Double boxing per element
+    static RegressionStats fitSimpleLinearRegression(double[] X, double[] Y) {
+        if (X.length != Y.length) throw new IllegalArgumentException("X and Y sizes differ.");
+        OnlineRegression reg = new OnlineRegression();
+        for (int i = 0; i < X.length; i++) reg.add(X[i], Y[i]);
+        return fitSimpleLinearRegression(reg);
+    }
+
+    // Fits over the remaining elements of X and Y; buffer positions are left unchanged
+    static RegressionStats fitSimpleLinearRegression(DoubleBuffer X, DoubleBuffer Y) {
+        if (X.remaining() != Y.remaining()) throw new IllegalArgumentException("X and Y sizes differ.");
+        OnlineRegression reg = new OnlineRegression();
+        int x0 = X.position(), y0 = Y.position(), n = X.remaining();
+        for (int i = 0; i < n; i++) reg.add(X.get(x0 + i), Y.get(y0 + i));
+        return fitSimpleLinearRegression(reg);
+    }
 
+    static RegressionStats fitSimpleLinearRegression(OnlineRegression reg) {
+        return regressionFromMoments(reg.n, reg.meanX, reg.meanY, reg.sxx, reg.syy, reg.sxy);
+    }
+
+    // Builds the regression summary from means and centered sums of squares/cross-products
+    static RegressionStats regressionFromMoments(long n, double meanX, double meanY, double sxx, double syy, double sxy) {
         double varX = sxx / (n - 1);
         double varY = syy / (n - 1);
         double sdX = Math.sqrt(varX);
@@ -600,25 +666,34 @@ static class InsuranceRecord {
         return st;
     }
 
-    // Build X (charges) and Y (region_code) from records
+    // Fit region_code ~ charges over the records (x = charges, y = region code)
     static void feature22_regressionChargesVsRegion(List<InsuranceRecord> records, List<Double> newCharges) {
-        List<Double> X = new ArrayList<>();
-        List<Double> Y = new ArrayList<>();
+        OnlineRegression reg = new OnlineRegression();
         for (InsuranceRecord r : records) {
-            Integer code = REGION_CODE.get(r.region.toLowerCase());
-            if (code != null) {
-                X.add(r.charges);
-                Y.add(code.doubleValue());
-            }
+            int code = r.regionInfo.ordinal;
+            if (code >= 0) reg.add(r.charges, code);
         }
-        if (X.size() < 2) {
+        printFeature22(reg, newCharges);
+    }
+
+    static void printFeature22(OnlineRegression reg, List<Double> newCharges) {
+        printFeature22(reg, toDoubleArray(newCharges));
+    }
+
+    static void printFeature22(OnlineRegression reg, double[] newCharges) {
+        if (reg.n < 2) {
             System.out.println("=== Feature 22: Regression charges ~ region_code ===");
             System.out.println("Not enough data to compute regression.");
             return;
         }
+        printFeature22(fitSimpleLinearRegression(reg), newCharges);
+    }
 
-        RegressionStats stats = fitSimpleLinearRegression(X, Y);
+    static void printFeature22(RegressionStats stats, List<Double> newCharges) {
+        printFeature22(stats, toDoubleArray(newCharges));
+    }
 
+    static void printFeature22(RegressionStats stats, double[] newCharges) {
         System.out.println("\n=== Feature 22: Regression of region_code ~ charges ===");
         System.out.printf(Locale.US, "N = %d%n", stats.n);
         System.out.printf(Locale.US, "Mean(charges) = %.4f, SD(charges) = %.4f%n", stats.meanX, stats.sdX);
@@ -628,186 +703,862 @@ static class InsuranceRecord {
         System.out.println("Region code mapping: " + REGION_CODE);
 
         System.out.println("\nApply regression to 33 charges (x) and output (x, y_hat):");
-        if (newCharges == null || newCharges.isEmpty()) {
-            newCharges = demo33Charges(); // fallback to built-in 33 values
+        if (newCharges == null || newCharges.length == 0) {
+            newCharges = DEMO_33_CHARGES; // fallback to built-in 33 values
             System.out.println("(Note) Using built-in 33 demo charges.");
         }
-        if (newCharges.size() != 33) {
-            System.out.println("(Note) Received " + newCharges.size() + " values; expected 33.");
+        if (newCharges.length != 33) {
+            System.out.println("(Note) Received " + newCharges.length + " values; expected 33.");
         }
         System.out.println("x (charges), y_hat (predicted region_code)");
-        for (double x : newCharges) {
-            double yhat = stats.a + stats.b * x;
-            System.out.printf(Locale.US, "%.2f, %.6f%n", x, yhat);
+        double[] yhat = new double[newCharges.length];
+        new BatchScorer(stats).score(newCharges, yhat);
+        for (int i = 0; i < newCharges.length; i++) {
+            System.out.printf(Locale.US, "%.2f, %.6f%n", newCharges[i], yhat[i]);
+        }
+    }
+
+    // ---------- Charges model: multiple regression (--mlr) ----------
+
+    static void printChargesModel(MultipleRegression model) {
+        System.out.println("\n=== Charges model: charges ~ " + String.join(" + ", model.predictors) + " (one-pass least squares) ===");
+        MultipleRegression.Fit fit = model.fit();
+        if (fit == null) {
+            System.out.println("Cannot compute regression: too few rows or collinear predictors.");
+            return;
+        }
+        System.out.printf(Locale.US, "N = %d, R^2 = %.4f, residual SD = %.2f%n", fit.n, fit.rSquared, fit.residualSd);
+        System.out.printf("%-20s %14s %12s%n", "term", "coefficient", "std.error");
+        System.out.printf(Locale.US, "%-20s %14.2f %12.2f%n", "intercept", fit.intercept, fit.interceptError);
+        for (int i = 0; i < fit.coefficients.length; i++) {
+            System.out.printf(Locale.US, "%-20s %14.2f %12.2f%n", fit.predictors[i], fit.coefficients[i], fit.standardErrors[i]);
         }
     }
 
     // Read 33 charges from a file (one per line). If path is null or unreadable, return empty list.
     static List<Double> readChargesFile(String path) {
-        if (path == null) return List.of();
-        try {
-            return Files.readAllLines(Paths.get(path)).stream()
-                    .map(String::trim)
-                    .filter(s -> !s.isEmpty() && !s.startsWith("#"))
-                    .map(s -> {
-                        try { return Double.parseDouble(s); }
-                        catch (NumberFormatException e) { return null; }
-                    })
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
+        double[] values = readChargesArray(path);
+        List<Double> out = new ArrayList<>(values.length);
+        for (double v : values) out.add(v);
+        return out;
+    }
+
+    // Same as readChargesFile, into a primitive array (parsed from bytes, no per-line String)
+    static double[] readChargesArray(String path) {
+        if (path == null) return new double[0];
+        try (CsvRowParser parser = new CsvRowParser(Files.newInputStream(Paths.get(path)))) {
+            return parser.readDoubleLines();
         } catch (IOException e) {
             System.err.println("Warning (Feature 22): couldn't read new charges file: " + e.getMessage());
-            return List.of();
+            return new double[0];
         }
     }
 
+    static double[] toDoubleArray(List<Double> values) {
+        if (values == null) return null;
+        double[] out = new double[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        return out;
+    }
+
     // Built-in list of exactly 33 demo charges
+    private static final double[] DEMO_33_CHARGES = {
+        1234.56, 2450.00, 3120.75, 4088.90, 5123.10, 6234.55, 7350.40, 8120.00, 9055.25, 10010.99,
+        11234.80, 12500.00, 13890.45, 14999.99, 16010.10, 17222.22, 18500.75, 19999.95, 21005.00, 22345.67,
+        23500.00, 24890.30, 26000.00, 27550.40, 28999.00, 30010.10, 31555.55, 32999.99, 34000.00, 35555.55,
+        36999.99, 38010.00, 39500.25
+    };
+
     static List<Double> demo33Charges() {
-        return Arrays.asList(
-            1234.56, 2450.00, 3120.75, 4088.90, 5123.10, 6234.55, 7350.40, 8120.00, 9055.25, 10010.99,
-            11234.80, 12500.00, 13890.45, 14999.99, 16010.10, 17222.22, 18500.75, 19999.95, 21005.00, 22345.67,
-            23500.00, 24890.30, 26000.00, 27550.40, 28999.00, 30010.10, 31555.55, 32999.99, 34000.00, 35555.55,
-            36999.99, 38010.00, 39500.25
-        );
+        List<Double> out = new ArrayList<>(DEMO_33_CHARGES.length);
+        for (double v : DEMO_33_CHARGES) out.add(v);
+        return out;
     }
 
-    // ---------- Main ----------
+    // ---------- Columnar overloads (InsuranceTable) ----------
+    // Same results as the List<InsuranceRecord> versions above, computed over primitive
+    // columns. Categorical checks are evaluated once per dictionary code instead of per row.
 
-    public static void main(String[] args) {
-        if (args.length != 2) {
-            System.err.println("Usage: java Driver <path-to-insurance.csv> <N>");
-            System.exit(2);
+    static InsuranceTable loadTable(String csvPath, int N) throws IOException {
+        InsuranceTable out = new InsuranceTable();
+        try (CsvRowParser parser = new CsvRowParser(Files.newInputStream(Paths.get(csvPath)))) {
+            parser.skipHeader();
+            parser.fill(out, N);
         }
-        String path = args[0];
-        int N;
+        return out;
+    }
+
+    /** loadTable using a memory-mapped, chunk-parallel parse when threads > 1. */
+    static InsuranceTable loadTable(String csvPath, int N, int threads) throws IOException {
+        return threads > 1 ? ParallelCsvLoader.load(csvPath, N, threads) : loadTable(csvPath, N);
+    }
+
+    // Loads from <csv>.snap when it matches the CSV and holds N rows; otherwise parses the CSV and (re)writes the snapshot
+    static InsuranceTable loadTableWithSnapshot(String csvPath, int N, int threads) throws IOException {
+        Path snap = TableSnapshot.pathFor(csvPath);
+        TableSnapshot.Source source = TableSnapshot.Source.of(Paths.get(csvPath));
+        InsuranceTable t = TableSnapshot.load(snap, source, N);
+        if (t != null) return t;
+        t = loadTable(csvPath, N, threads);
         try {
-            N = Integer.parseInt(args[1]);
-            if (N <= 0) throw new NumberFormatException();
-        } catch (NumberFormatException e) {
-            System.err.println("N must be a positive integer.");
-            System.exit(2);
-            return;
+            TableSnapshot.write(snap, source, t, t.size() < N); // fewer than N rows: the whole file was read
+        } catch (IOException e) {
+            System.err.println("Warning: couldn't write snapshot " + snap + ": " + e.getMessage());
         }
+        return t;
+    }
 
+    /**
+     * The first N rows off the heap (--offheap). With snapshot, a matching <csv>.snap is
+     * mapped in place; otherwise the CSV is parsed into direct buffers and, with snapshot,
+     * written out as the snapshot for the next run.
+     */
+    static OffHeapTable loadOffHeap(String csvPath, int N, boolean snapshot) throws IOException {
+        if (!snapshot) return OffHeapTable.parse(csvPath, N);
+        Path snap = TableSnapshot.pathFor(csvPath);
+        TableSnapshot.Source source = TableSnapshot.Source.of(Paths.get(csvPath));
+        OffHeapTable t = TableSnapshot.map(snap, source, N);
+        if (t != null) return t;
+        t = OffHeapTable.parse(csvPath, N);
         try {
-            List<InsuranceRecord> records = loadFirstN(path, N);
+            TableSnapshot.write(snap, source, t, t.size() < N);
+        } catch (IOException e) {
+            System.err.println("Warning: couldn't write snapshot " + snap + ": " + e.getMessage());
+        }
+        return t;
+    }
+
+    // ---------- Streaming load: rows go straight into the accumulators ----------
+    static final int STREAM_BATCH_ROWS = 8192;
 
-            System.out.println("=== Feature 01: Stored First N Records ===");
+    /**
+     * Feeds the first N rows of csvPath into agg without materializing the dataset: rows are
+     * parsed into a fixed-size batch that is handed to the aggregator and then reused, so
+     * memory stays constant however large the file is. Returns the number of rows streamed.
+     */
+    static long streamFirstN(String csvPath, long N, FeatureAggregator agg) throws IOException {
+        return streamFirstN(csvPath, N, agg::accept);
+    }
 
-            System.out.println("Stored " + records.size() + " records:");
-            for (int i = 0; i < records.size(); i++) {
-                System.out.printf("#%d %s%n", i + 1, records.get(i));
+    /** streamFirstN handing each batch to sink, which must not keep it. */
+    static long streamFirstN(String csvPath, long N, Consumer<InsuranceTable> sink) throws IOException {
+        InsuranceTable batch = new InsuranceTable(STREAM_BATCH_ROWS);
+        long count = 0;
+        try (CsvRowParser parser = new CsvRowParser(Files.newInputStream(Paths.get(csvPath)))) {
+            parser.skipHeader();
+            boolean more = true;
+            while (more && count < N) {
+                batch = batch.nextBatch(STREAM_BATCH_ROWS);
+                more = parser.fill(batch, (int) Math.min(STREAM_BATCH_ROWS, N - count));
+                count += batch.size();
+                sink.accept(batch);
             }
+        }
+        return count;
+    }
+
+    static List<Integer> agesFrom(InsuranceTable t) {
+        List<Integer> ages = new ArrayList<>(t.size());
+        for (int i = 0; i < t.size(); i++) ages.add(t.age[i]);
+        return ages;
+    }
+
+    static IntHistogram childrenCounts(InsuranceTable t) {
+        IntHistogram counts = new IntHistogram();
+        for (int i = 0; i < t.size(); i++) counts.add(t.children[i]);
+        return counts;
+    }
+
+    static Map<String, Stats> computeFeature02Stats(InsuranceTable t) {
+        Stats age = new Stats(), bmi = new Stats(), children = new Stats(), charges = new Stats();
+        for (int i = 0; i < t.size(); i++) {
+            age.add(t.age[i]);
+            bmi.add(t.bmi[i]);
+            children.add(t.children[i]);
+            charges.add(t.charges[i]);
+        }
+        Map<String, Stats> map = new LinkedHashMap<>();
+        map.put("age", age);
+        map.put("bmi", bmi);
+        map.put("children", children);
+        map.put("charges", charges);
+        return map;
+    }
+
+    public static IntHistogram feature04_bmiBins(InsuranceTable t, int binSize) {
+        IntHistogram bins = new IntHistogram();
+        for (int i = 0; i < t.size(); i++) {
+            bins.add(((int) Math.floor(t.bmi[i] / binSize)) * binSize);
+        }
+        return bins;
+    }
+
+    /** feature04_bmiBins(t, binSize), memoized in the result cache (shared: do not add to it). */
+    static IntHistogram cachedBmiBins(InsuranceTable t, int binSize) {
+        return cache.get(ResultCache.key(t.version(), "feature04_bmiBins", binSize),
+                () -> feature04_bmiBins(t, binSize));
+    }
+
+    public static Map<String, Integer> feature06_smokerCounts(InsuranceTable t) {
+        int smokers = InsuranceTable.RowFlags.count(t.rowFlags().smoker);
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("smoker", smokers);
+        counts.put("non-smoker", t.size() - smokers);
+        return counts;
+    }
+
+    static Map<String,Integer> regionCounts(InsuranceTable t) {
+        int[] perCode = new int[t.regionDict.size()];
+        for (int i = 0; i < t.size(); i++) perCode[t.regionCode(i)]++;
+        String[] lower = t.regionDict.lowerCased();
+        Map<String,Integer> m = new TreeMap<>();
+        for (int c = 0; c < perCode.length; c++) {
+            if (perCode[c] > 0) m.merge(lower[c], perCode[c], Integer::sum);
+        }
+        return m;
+    }
+
+    static boolean feature07_fairWithin5Percent(InsuranceTable t) {
+        return fairWithin5Percent(regionCounts(t));
+    }
+
+    static boolean fairWithin5Percent(Map<String,Integer> m) {
+        int total = m.values().stream().mapToInt(i->i).sum();
+        if (total == 0 || m.isEmpty()) return false;
+        double min = 1.0, max = 0.0;
+        for (int c : m.values()) {
+            double p = c / (double) total;
+            if (p < min) min = p;
+            if (p > max) max = p;
+        }
+        return (max - min) <= 0.05 + 1e-12;
+    }
+
+    // Features 08, 09, 11, 12 and 14 filter rows through the table's bitmap index and read
+    // only the selected rows, in row order.
+
+    private static final GroupBy.Agg AVG_CHARGES = GroupBy.avg(GroupBy.Column.CHARGES);
+    private static final GroupBy.Agg MIN_CHARGES = GroupBy.min(GroupBy.Column.CHARGES);
+    private static final GroupBy.Agg MAX_CHARGES = GroupBy.max(GroupBy.Column.CHARGES);
+
+    public static boolean feature08_oldVsYoungCharges(InsuranceTable t) {
+        BitmapIndex idx = t.index();
+        RowBitmap old = idx.age(50, Integer.MAX_VALUE), young = idx.age(Integer.MIN_VALUE, 20);
+        if (old.isEmpty() || young.isEmpty()) return false;
+        return idx.aggregate(old, AVG_CHARGES) >= 2.0 * idx.aggregate(young, AVG_CHARGES);
+    }
+
+    /** max - min of charges over rows, 0 when there are none. */
+    private static double chargeRange(BitmapIndex idx, RowBitmap rows) {
+        return rows.isEmpty() ? 0 : idx.aggregate(rows, MAX_CHARGES) - idx.aggregate(rows, MIN_CHARGES);
+    }
+
+    static boolean feature09_bmi30to45HasWiderChargeRange(InsuranceTable t) {
+        BitmapIndex idx = t.index();
+        RowBitmap low = idx.bmi(Double.NEGATIVE_INFINITY, 30, false), mid = idx.bmi(30, 45, true);
+        RowBitmap high = idx.all.andNot(low.or(mid)); // includes NaN, like the else branch of a scan
+        double lr = chargeRange(idx, low), mr = chargeRange(idx, mid), hr = chargeRange(idx, high);
+        return mr > lr && mr > hr;
+    }
+
+    public static boolean feature10_lowerChargePerChild(InsuranceTable t) {
+        StatsByKey groups = new StatsByKey(); // charges per children value
+        for (int i = 0; i < t.size(); i++) groups.get(t.children[i]).add(t.charges[i]);
+        double prev = Double.MAX_VALUE;
+        for (int c : groups.keys()) {
+            double avg = groups.get(c).avg();
+            double perChild = (c == 0) ? avg : avg / c;
+            if (perChild > prev) return false;
+            prev = perChild;
+        }
+        return true;
+    }
+
+    static boolean feature11_smokersHigherAvgAndWider(InsuranceTable t) {
+        BitmapIndex idx = t.index();
+        RowBitmap yes = idx.smoker(true), no = idx.smoker(false);
+        if (yes.isEmpty() || no.isEmpty()) return false;
+        return idx.aggregate(yes, AVG_CHARGES) > idx.aggregate(no, AVG_CHARGES) && chargeRange(idx, yes) > chargeRange(idx, no);
+    }
+
+    public static boolean feature12_southSmokers(InsuranceTable t) {
+        BitmapIndex idx = t.index();
+        RowBitmap smokers = idx.smoker(true), south = idx.region(r -> r.contains("south"));
+        RowBitmap southSmokers = smokers.and(south), otherSmokers = smokers.andNot(south);
+        if (southSmokers.isEmpty() || otherSmokers.isEmpty()) return false;
+        return idx.aggregate(southSmokers, AVG_CHARGES) >= 1.25 * idx.aggregate(otherSmokers, AVG_CHARGES);
+    }
+
+    // Features 13 and 15-19 are group-by queries: SMOKER splits rows into "yes"/"no", SOUTH into
+    // "south"/"other" and SOUTH_NORTH into "south"/"north" (other regions left out).
+
+    static boolean feature13_smokersLowerBmi(InsuranceTable t) {
+        GroupBy.Result r = GroupBy.of(t).by(GroupBy.SMOKER).agg(GroupBy.avg(GroupBy.Column.BMI));
+        if (r.count("yes") == 0 || r.count("no") == 0) return false;
+        return r.get(0, "yes") < r.get(0, "no");
+    }
+
+    public static IntHistogram feature14_smokerAgeDist(InsuranceTable t) {
+        BitmapIndex idx = t.index();
+        RowBitmap smokers = idx.smoker(true);
+        IntHistogram dist = new IntHistogram();
+        for (Map.Entry<Integer, RowBitmap> e : idx.ages().entrySet()) {
+            dist.add(e.getKey(), smokers.andCardinality(e.getValue()));
+        }
+        return dist;
+    }
+
+    static List<Map.Entry<String,Double>> feature15_regionsByAvgChargesDesc(InsuranceTable t) {
+        GroupBy.Result r = GroupBy.of(t).by(GroupBy.REGION).agg(GroupBy.avg(GroupBy.Column.CHARGES));
+        List<Map.Entry<String,Double>> out = new ArrayList<>();
+        for (int i = 0; i < r.size(); i++) out.add(Map.entry(r.key(i)[0], r.value(i, 0)));
+        out.sort((a,b)->Double.compare(b.getValue(), a.getValue()));
+        return out;
+    }
+
+    public static Map<String, Double> feature16_avgAges(InsuranceTable t) {
+        GroupBy.Result r = GroupBy.of(t).by(GroupBy.SMOKER).agg(GroupBy.avg(GroupBy.Column.AGE));
+        Map<String, Double> out = new LinkedHashMap<>();
+        out.put("smoker_avg_age", r.count("yes") == 0 ? 0.0 : r.get(0, "yes"));
+        out.put("nonsmoker_avg_age", r.count("no") == 0 ? 0.0 : r.get(0, "no"));
+        return out;
+    }
+
+    static double[] feature17_southVsNorthSmokingRatesAndAvgAge(InsuranceTable t) {
+        GroupBy.Result byRegion = GroupBy.of(t).by(GroupBy.SOUTH_NORTH).agg(GroupBy.avg(GroupBy.Column.AGE));
+        GroupBy.Result bySmoker = GroupBy.of(t).by(GroupBy.SOUTH_NORTH, GroupBy.SMOKER).agg(GroupBy.count());
+        long sCount = byRegion.count("south"), nCount = byRegion.count("north");
+        double sRate = sCount==0?0:(bySmoker.count("south", "yes")/(double)sCount);
+        double nRate = nCount==0?0:(bySmoker.count("north", "yes")/(double)nCount);
+        double sAvgAge = sCount==0?0:byRegion.get(0, "south");
+        return new double[]{sRate, nRate, sAvgAge};
+    }
+
+    public static Map<String, Double> feature18_bmiSouthNorth(InsuranceTable t) {
+        GroupBy.Result r = GroupBy.of(t).by(GroupBy.SOUTH_NORTH).agg(GroupBy.avg(GroupBy.Column.BMI));
+        Map<String, Double> out = new LinkedHashMap<>();
+        out.put("south_avg_bmi", r.count("south") == 0 ? 0.0 : r.get(0, "south"));
+        out.put("north_avg_bmi", r.count("north") == 0 ? 0.0 : r.get(0, "north"));
+        return out;
+    }
+
+    static Map<String,Double> feature19_childrenSouthVsNorthAges(InsuranceTable t) {
+        GroupBy.Result r = GroupBy.of(t).by(GroupBy.SOUTH_NORTH)
+                .agg(GroupBy.avg(GroupBy.Column.CHILDREN), GroupBy.avg(GroupBy.Column.AGE));
+        boolean s = r.count("south") > 0, n = r.count("north") > 0;
+        Map<String,Double> out = new LinkedHashMap<>();
+        out.put("south_avg_children", s?r.get(0, "south"):0);
+        out.put("north_avg_children", n?r.get(0, "north"):0);
+        out.put("south_avg_age", s?r.get(1, "south"):0);
+        out.put("north_avg_age", n?r.get(1, "north"):0);
+        return out;
+    }
+
+    public static void feature20_regressionBMI(InsuranceTable t) {
+        printRegressionBMI(fitRegressionBMI(t));
+    }
+
+    static OnlineRegression fitRegressionBMI(InsuranceTable t) {
+        OnlineRegression reg = new OnlineRegression();
+        for (int i = 0; i < t.size(); i++) reg.add(t.bmi[i], t.charges[i]);
+        return reg;
+    }
+
+    static void feature21_regressionChildren(InsuranceTable t) {
+        OnlineRegression reg = new OnlineRegression();
+        for (int i = 0; i < t.size(); i++) reg.add(t.children[i], t.charges[i]);
+        printRegressionChildren(reg);
+    }
+
+    static void feature22_regressionChargesVsRegion(InsuranceTable t, List<Double> newCharges) {
+        feature22_regressionChargesVsRegion(t, toDoubleArray(newCharges));
+    }
+
+    static void feature22_regressionChargesVsRegion(InsuranceTable t, double[] newCharges) {
+        String[] lower = t.regionDict.lowerCased();
+        int[] codeOf = new int[lower.length];
+        for (int c = 0; c < lower.length; c++) codeOf[c] = REGION_CODE.getOrDefault(lower[c], -1);
+        OnlineRegression reg = new OnlineRegression();
+        for (int i = 0; i < t.size(); i++) {
+            int code = codeOf[t.regionCode(i)];
+            if (code >= 0) reg.add(t.charges[i], code);
+        }
+        printFeature22(reg, newCharges);
+    }
 
-            // Feature 02: summary stats
-            Map<String, Stats> stats = computeFeature02Stats(records);
-            printFeature02(stats);
-
-            // Feature 03: age horizontal histogram (per age)
-            System.out.println("\n=== Feature 03: Age Horizontal Histogram (per age) ===");
-            List<Integer> ages = agesFrom(records);
-            printPerAgeHistogram(ages, 50);
-
-            // Feature 04: BMI vertical histogram (bin=5)
-            Map<Integer, Integer> bmiBins = feature04_bmiBins(records, 5);
-            System.out.println("\n=== Feature 04: BMI Vertical Histogram (bin=5) ===");
-            printFeature04(bmiBins);
-
-            System.out.println("\n=== Feature 05: Age Histograms (per age and binned) ===");
-            printBinnedHistogram(ages, 5, 50);
-
-            // Feature 06: smokers vs non-smokers
-            Map<String, Integer> smokeCounts = feature06_smokerCounts(records);
-            System.out.println("\n=== Feature 06: Smokers vs Non-Smokers (Vertical) ===");
-            printFeature06(smokeCounts);
-
-            System.out.println("\n=== Feature 07: Region Fairness (≤5% spread) ===");
-            Map<String,Integer> rc = regionCounts(records);
-            int total = rc.values().stream().mapToInt(i->i).sum();
-            for (Map.Entry<String,Integer> e : rc.entrySet()) {
-                double p = total==0?0:(e.getValue()/(double)total)*100.0;
-                System.out.printf("%-10s : %4d (%.2f%%)%n", e.getKey(), e.getValue(), p);
+    // ---------- Feature 01: record dump ----------
+
+    // Prints "#i <record>" lines like printf("#%d %s%n", i, record), for at most limit rows
+    static void printFeature01(InsuranceTable t, int limit) {
+        ReportSink out = sink;
+        out.append("Stored ").append(Integer.toString(t.size())).append(" records:").newline();
+        int shown = Math.min(limit, t.size());
+        for (int i = 0; i < shown; i++) {
+            out.append('#').appendInt(i + 1).append(' ');
+            appendRecord(out, t, i);
+            out.newline();
+        }
+        if (shown < t.size()) {
+            out.append("(").append(Integer.toString(t.size() - shown)).append(" more record(s) not shown)").newline();
+        }
+        out.flush();
+    }
+
+    // printFeature01 for an off-heap table, copying a batch of rows at a time onto the heap
+    static void printFeature01(OffHeapTable t, int limit) {
+        ReportSink out = sink;
+        out.append("Stored ").append(Integer.toString(t.size())).append(" records:").newline();
+        int shown = Math.min(limit, t.size());
+        for (int from = 0; from < shown; from += STREAM_BATCH_ROWS) {
+            InsuranceTable batch = t.slice(from, Math.min(STREAM_BATCH_ROWS, shown - from));
+            for (int i = 0; i < batch.size(); i++) {
+                out.append('#').appendInt(from + i + 1).append(' ');
+                appendRecord(out, batch, i);
+                out.newline();
             }
-            System.out.println(feature07_fairWithin5Percent(records) ? "FAIR: TRUE" : "FAIR: FALSE");
+        }
+        if (shown < t.size()) {
+            out.append("(").append(Integer.toString(t.size() - shown)).append(" more record(s) not shown)").newline();
+        }
+        out.flush();
+    }
 
+    // Same text as InsuranceRecord.toString() for row i, without building the record
+    static void appendRecord(ReportSink out, InsuranceTable t, int i) {
+        out.append("Age: ").appendInt(t.age[i])
+           .append(" | Sex: ").append(t.sexDict.decode(t.sexCode(i)))
+           .append(" | BMI: ").appendFixed(t.bmi[i], 2)
+           .append(" | Children: ").appendInt(t.children[i])
+           .append(" | Smoker: ").append(t.smokerDict.decode(t.smokerCode(i)))
+           .append(" | Region: ").append(t.regionDict.decode(t.regionCode(i)))
+           .append(" | Charges: ").appendFixed(t.charges[i], 2);
+    }
 
-            // Feature 08
-            System.out.println("\n=== Feature 08: Avg charges age>=50 at least 2x age<=20 ? ===");
-            System.out.println(feature08_oldVsYoungCharges(records) ? "TRUE" : "FALSE");
+    // ---------- Report (Features 02-22) from a single-pass aggregation ----------
 
-            System.out.println("\n=== Feature 09: BMI 30–45 has widest charge range? ===");
-            System.out.println(feature09_bmi30to45HasWiderChargeRange(records) ? "TRUE" : "FALSE");
+    static void printReport(FeatureAggregator agg, double[] newCharges) {
+        // Each feature is timed as a Metrics phase (computation and printing). They only read
+        // agg's accumulators, the row scan was timed when agg was filled, so no phase has rows.
+        Metrics.Phase phase = Metrics.begin("feature02");
 
-            // Feature 10
-            System.out.println("\n=== Feature 10: More children ⇒ lower charge per child (monotone) ? ===");
-            System.out.println(feature10_lowerChargePerChild(records) ? "TRUE" : "FALSE");
+        // Feature 02: summary stats
+        printFeature02(agg.computeFeature02Stats());
+        if (agg.quantiles) {
+            phase = phase.next("quantiles");
+            printQuantiles(agg.quantileSketches());
+        }
 
-            System.out.println("\n=== Feature 11: Smokers higher avg charges AND wider range? ===");
-            System.out.println(feature11_smokersHigherAvgAndWider(records) ? "TRUE" : "FALSE");
+        phase = phase.next("feature03");
+        // Feature 03: age horizontal histogram (per age)
+        System.out.println("\n=== Feature 03: Age Horizontal Histogram (per age) ===");
+        printPerAgeHistogram(agg.ageCounts, 50);
+
+        phase = phase.next("feature04");
+        // Feature 04: BMI vertical histogram (bin=5)
+        System.out.println("\n=== Feature 04: BMI Vertical Histogram (bin=" + agg.bmiBinSize + ") ===");
+        printFeature04(agg.bmiBins);
+
+        phase = phase.next("feature05");
+        System.out.println("\n=== Feature 05: Age Histograms (per age and binned) ===");
+        printAgeBins(ageBins(agg, 5), 5, 50);
+
+        phase = phase.next("feature06");
+        // Feature 06: smokers vs non-smokers
+        System.out.println("\n=== Feature 06: Smokers vs Non-Smokers (Vertical) ===");
+        printFeature06(agg.feature06_smokerCounts());
+
+        phase = phase.next("feature07");
+        System.out.println("\n=== Feature 07: Region Fairness (≤5% spread) ===");
+        Map<String,Integer> rc = agg.regionCounts();
+        int total = rc.values().stream().mapToInt(i->i).sum();
+        for (Map.Entry<String,Integer> e : rc.entrySet()) {
+            double p = total==0?0:(e.getValue()/(double)total)*100.0;
+            System.out.printf("%-10s : %4d (%.2f%%)%n", e.getKey(), e.getValue(), p);
+        }
+        System.out.println(agg.feature07_fairWithin5Percent() ? "FAIR: TRUE" : "FAIR: FALSE");
+
+        phase = phase.next("feature08");
+        // Feature 08
+        System.out.println("\n=== Feature 08: Avg charges age>=50 at least 2x age<=20 ? ===");
+        System.out.println(agg.feature08_oldVsYoungCharges() ? "TRUE" : "FALSE");
+
+        phase = phase.next("feature09");
+        System.out.println("\n=== Feature 09: BMI 30–45 has widest charge range? ===");
+        System.out.println(agg.feature09_bmi30to45HasWiderChargeRange() ? "TRUE" : "FALSE");
+
+        phase = phase.next("feature10");
+        // Feature 10
+        System.out.println("\n=== Feature 10: More children ⇒ lower charge per child (monotone) ? ===");
+        System.out.println(agg.feature10_lowerChargePerChild() ? "TRUE" : "FALSE");
+
+        phase = phase.next("feature11");
+        System.out.println("\n=== Feature 11: Smokers higher avg charges AND wider range? ===");
+        System.out.println(agg.feature11_smokersHigherAvgAndWider() ? "TRUE" : "FALSE");
+
+        phase = phase.next("feature12");
+        // Feature 12
+        System.out.println("\n=== Feature 12: South smokers pay ≥25% more than other smokers ? ===");
+        System.out.println(agg.feature12_southSmokers() ? "TRUE" : "FALSE");
+
+        phase = phase.next("feature13");
+        System.out.println("\n=== Feature 13: Do smokers average lower BMI? ===");
+        System.out.println(agg.feature13_smokersLowerBmi() ? "TRUE" : "FALSE");
+
+        phase = phase.next("feature14");
+        // Feature 14
+        System.out.println("\n=== Feature 14: Smoker Age Distribution (age -> count) ===");
+        agg.smokerAgeCounts.forEach((age, count) -> System.out.println(age + " -> " + count));
+
+        phase = phase.next("feature15");
+        // Feature 15
+        System.out.println("\n=== Feature 15: Regions by Average Charges (desc) ===");
+        for (Map.Entry<String,Double> e : agg.feature15_regionsByAvgChargesDesc())
+            System.out.printf("%-12s -> %.2f%n", e.getKey(), e.getValue());
+
+        phase = phase.next("feature16");
+        // Feature 16
+        System.out.println("\n=== Feature 16: Avg Age (smokers vs non-smokers) ===");
+        Map<String, Double> f16 = agg.feature16_avgAges();
+        System.out.printf("smoker_avg_age: %.2f%n", f16.get("smoker_avg_age"));
+        System.out.printf("nonsmoker_avg_age: %.2f%n", f16.get("nonsmoker_avg_age"));
+
+        phase = phase.next("feature17");
+        System.out.println("\n=== Feature 17: Southerners smoke more than northerners? If yes, at what avg age ===");
+        double[] s17 = agg.feature17_southVsNorthSmokingRatesAndAvgAge();
+        System.out.printf("south_smoke_rate=%.6f north_smoke_rate=%.6f%n", s17[0], s17[1]);
+        if (s17[0] > s17[1]) System.out.printf("TRUE at south average age: %.2f%n", s17[2]);
+        else System.out.println("FALSE");
+
+        phase = phase.next("feature18");
+        // Feature 18
+        System.out.println("\n=== Feature 18: Avg BMI (south vs north) ===");
+        Map<String, Double> f18 = agg.feature18_bmiSouthNorth();
+        System.out.printf("south_avg_bmi: %.2f%n", f18.get("south_avg_bmi"));
+        System.out.printf("north_avg_bmi: %.2f%n", f18.get("north_avg_bmi"));
+
+        phase = phase.next("feature19");
+        System.out.println("\n=== Feature 19: Southerners average more children than northerners? At what avg age ===");
+        Map<String,Double> s19 = agg.feature19_childrenSouthVsNorthAges();
+        boolean moreKids = s19.get("south_avg_children") > s19.get("north_avg_children");
+        System.out.printf("south_avg_children=%.2f north_avg_children=%.2f%n", s19.get("south_avg_children"), s19.get("north_avg_children"));
+        System.out.printf("south_avg_age=%.2f north_avg_age=%.2f%n", s19.get("south_avg_age"), s19.get("north_avg_age"));
+        System.out.println(moreKids ? "TRUE at south average age above" : "FALSE");
+
+        phase = phase.next("feature20");
+        // Feature 20
+        System.out.println("\n=== Feature 20: Regression charges ~ BMI ===");
+        agg.feature20_regressionBMI();
+
+        phase = phase.next("feature21");
+        printAgeBins(ageBins(agg, 5), 5, 50); // same bins as Feature 05: served from the cache
+        System.out.println("\n=== Feature 21: Regression charges ~ children (r + 22 predictions) ===");
+        agg.feature21_regressionChildren();
+
+        phase = phase.next("feature22");
+        System.out.println("\n=== Feature 22: Regression region_code ~ charges (r + 33 predictions) ===");
+        printChildrenCounts(agg.childrenCounts);
+
+        System.out.println("\n=== Feature 22: Regression (region_code ~ charges) + Pearson r + 33 predictions ===");
+        printFeature22(agg.regionFit, newCharges);
+
+        if (agg.mlr) {
+            phase = phase.next("charges model");
+            printChargesModel(agg.chargesModel());
+        }
+        phase.end();
+    }
+
+    // ---------- Approximate answers (--approx) ----------
 
+    /** The exact aggregation, for checks the sample can't decide. */
+    interface ExactScan {
+        FeatureAggregator run() throws IOException;
+    }
 
-            // Feature 12
-            System.out.println("\n=== Feature 12: South smokers pay ≥25% more than other smokers ? ===");
-            System.out.println(feature12_southSmokers(records) ? "TRUE" : "FALSE");
+    /** Runs the exact scan on first use and remembers which features needed it. */
+    private static final class OnDemand {
+        private final ExactScan scan;
+        private FeatureAggregator agg;
+        final List<String> usedBy = new ArrayList<>();
 
-            System.out.println("\n=== Feature 13: Do smokers average lower BMI? ===");
-            System.out.println(feature13_smokersLowerBmi(records) ? "TRUE" : "FALSE");
+        OnDemand(ExactScan scan) { this.scan = scan; }
 
-            // Feature 14
-            System.out.println("\n=== Feature 14: Smoker Age Distribution (age -> count) ===");
-            for (Map.Entry<Integer, Integer> e : feature14_smokerAgeDist(records).entrySet()) {
-                System.out.println(e.getKey() + " -> " + e.getValue());
+        FeatureAggregator get(String feature) throws IOException {
+            usedBy.add(feature);
+            if (agg == null) {
+                Metrics.Phase phase = Metrics.begin("approx (exact scan)");
+                agg = scan.run();
+                phase.end(agg.rows);
             }
+            return agg;
+        }
+    }
+
+    /**
+     * Samples the first N rows per (smoker, region) stratum and prints features 07-13, 17
+     * and 19 from the sample. The rows are sampled while streaming them (stream), in place off
+     * the heap (offHeap) or after loading them as usual. Checks whose interval straddles their
+     * threshold fall back to one exact scan.
+     */
+    static void runApprox(String path, int N, int perStratum, boolean stream, boolean offHeap, boolean snapshot,
+                          int threads) throws IOException {
+        StratifiedSample sample = new StratifiedSample(perStratum);
+        ExactScan scan;
+        if (stream) {
+            Metrics.Phase phase = Metrics.begin("approx (parse+sample)");
+            phase.end(streamFirstN(path, N, sample::accept));
+            scan = () -> {
+                FeatureAggregator agg = new FeatureAggregator(5);
+                streamFirstN(path, N, agg);
+                return agg;
+            };
+        } else if (offHeap) {
+            Metrics.Phase phase = Metrics.begin(snapshot ? "load (map snapshot or parse)" : "load (parse off-heap)");
+            OffHeapTable table = loadOffHeap(path, N, snapshot);
+            phase.end(table.size());
+            phase = Metrics.begin("approx (sample)", table.size());
+            sample.accept(table, 0, table.size());
+            phase.end();
+            scan = () -> FeatureAggregator.aggregate(table, 5, false, false, threads);
+        } else {
+            Metrics.Phase phase = Metrics.begin(snapshot ? "load (snapshot or parse)" : "load (parse)");
+            InsuranceTable table = snapshot ? loadTableWithSnapshot(path, N, threads) : loadTable(path, N, threads);
+            phase.end(table.size());
+            phase = Metrics.begin("approx (sample)", table.size());
+            sample.accept(table);
+            phase.end();
+            scan = () -> FeatureAggregator.aggregate(table, 5, false, false, threads);
+        }
+        printApproxReport(sample, new OnDemand(scan));
+    }
+
+    private static void printApproxReport(StratifiedSample s, OnDemand exact) throws IOException {
+        System.out.println("=== Approximate answers: Features 07-13, 17 and 19 ===");
+        System.out.printf("Sampled %d of %d records (%d smoker x region strata, up to %d each); 99%% intervals.%n",
+                s.sampled(), s.rows, s.strata(), s.perStratum());
+
+        System.out.println("\n=== Feature 07: Region Fairness (≤5% spread) ===");
+        Map<String,Integer> rc = s.regionCounts();
+        int total = rc.values().stream().mapToInt(i->i).sum();
+        for (Map.Entry<String,Integer> e : rc.entrySet()) {
+            double p = total==0?0:(e.getValue()/(double)total)*100.0;
+            System.out.printf("%-10s : %4d (%.2f%%)%n", e.getKey(), e.getValue(), p);
+        }
+        System.out.println(fairWithin5Percent(rc) ? "FAIR: TRUE" : "FAIR: FALSE");
+        System.out.println("  exact: stratum row counts");
+
+        System.out.println("\n=== Feature 08: Avg charges age>=50 at least 2x age<=20 ? ===");
+        StratifiedSample.Answer a = s.feature08_oldVsYoungCharges();
+        printAnswer(a, a.decided() ? a.decision : exact.get("08").feature08_oldVsYoungCharges());
+
+        System.out.println("\n=== Feature 09: BMI 30–45 has widest charge range? ===");
+        a = s.feature09_bmi30to45HasWiderChargeRange();
+        printAnswer(a, a.decided() ? a.decision : exact.get("09").feature09_bmi30to45HasWiderChargeRange());
+
+        System.out.println("\n=== Feature 10: More children ⇒ lower charge per child (monotone) ? ===");
+        a = s.feature10_lowerChargePerChild();
+        printAnswer(a, a.decided() ? a.decision : exact.get("10").feature10_lowerChargePerChild());
+
+        System.out.println("\n=== Feature 11: Smokers higher avg charges AND wider range? ===");
+        a = s.feature11_smokersHigherAvgAndWider();
+        printAnswer(a, a.decided() ? a.decision : exact.get("11").feature11_smokersHigherAvgAndWider());
+
+        System.out.println("\n=== Feature 12: South smokers pay ≥25% more than other smokers ? ===");
+        a = s.feature12_southSmokers();
+        printAnswer(a, a.decided() ? a.decision : exact.get("12").feature12_southSmokers());
+
+        System.out.println("\n=== Feature 13: Do smokers average lower BMI? ===");
+        a = s.feature13_smokersLowerBmi();
+        printAnswer(a, a.decided() ? a.decision : exact.get("13").feature13_smokersLowerBmi());
+
+        System.out.println("\n=== Feature 17: Southerners smoke more than northerners? If yes, at what avg age ===");
+        double[] s17 = s.feature17_smokingRates();
+        System.out.printf("south_smoke_rate=%.6f north_smoke_rate=%.6f%n", s17[0], s17[1]);
+        if (s17[0] > s17[1]) {
+            StratifiedSample.Estimate age = s.southAvgAge();
+            System.out.printf("TRUE at south average age: %.2f%n", age.value);
+            System.out.println("  approx: average age " + age + "; smoking rates exact from stratum row counts");
+        } else {
+            System.out.println("FALSE");
+            System.out.println("  exact: stratum row counts");
+        }
 
-            // Feature 15
-                        System.out.println("\n=== Feature 15: Regions by Average Charges (desc) ===");
-            for (Map.Entry<String,Double> e : feature15_regionsByAvgChargesDesc(records))
-                System.out.printf("%-12s -> %.2f%n", e.getKey(), e.getValue());
-
-            // Feature 16
-            System.out.println("\n=== Feature 16: Avg Age (smokers vs non-smokers) ===");
-            Map<String, Double> f16 = feature16_avgAges(records);
-            System.out.printf("smoker_avg_age: %.2f%n", f16.get("smoker_avg_age"));
-            System.out.printf("nonsmoker_avg_age: %.2f%n", f16.get("nonsmoker_avg_age"));
-
-            System.out.println("\n=== Feature 17: Southerners smoke more than northerners? If yes, at what avg age ===");
-            double[] s17 = feature17_southVsNorthSmokingRatesAndAvgAge(records);
-            System.out.printf("south_smoke_rate=%.6f north_smoke_rate=%.6f%n", s17[0], s17[1]);
-            if (s17[0] > s17[1]) System.out.printf("TRUE at south average age: %.2f%n", s17[2]);
-            else System.out.println("FALSE");
-
-            // Feature 18
-            System.out.println("\n=== Feature 18: Avg BMI (south vs north) ===");
-            Map<String, Double> f18 = feature18_bmiSouthNorth(records);
-            System.out.printf("south_avg_bmi: %.2f%n", f18.get("south_avg_bmi"));
-            System.out.printf("north_avg_bmi: %.2f%n", f18.get("north_avg_bmi"));
-
-            System.out.println("\n=== Feature 19: Southerners average more children than northerners? At what avg age ===");
-            Map<String,Double> s19 = feature19_childrenSouthVsNorthAges(records);
+        System.out.println("\n=== Feature 19: Southerners average more children than northerners? At what avg age ===");
+        a = s.feature19_southMoreChildren();
+        if (a.decided()) {
+            StratifiedSample.Estimate kids = s.feature19_childrenSouthMinusNorth();
+            System.out.printf("south_avg_children=%.2f north_avg_children=%.2f%n", kids.meanA, kids.meanB);
+            System.out.printf("south_avg_age=%.2f north_avg_age=%.2f%n", s.southAvgAge().value, s.northAvgAge().value);
+            printAnswer(a, a.decision ? "TRUE at south average age above" : "FALSE");
+        } else {
+            Map<String,Double> s19 = exact.get("19").feature19_childrenSouthVsNorthAges();
             boolean moreKids = s19.get("south_avg_children") > s19.get("north_avg_children");
             System.out.printf("south_avg_children=%.2f north_avg_children=%.2f%n", s19.get("south_avg_children"), s19.get("north_avg_children"));
             System.out.printf("south_avg_age=%.2f north_avg_age=%.2f%n", s19.get("south_avg_age"), s19.get("north_avg_age"));
-            System.out.println(moreKids ? "TRUE at south average age above" : "FALSE");
+            printAnswer(a, moreKids ? "TRUE at south average age above" : "FALSE");
+        }
+
+        System.out.println(exact.usedBy.isEmpty() ? "\nExact scan: not needed."
+                : "\nExact scan of " + exact.agg.rows + " records for feature(s) " + String.join(", ", exact.usedBy) + ".");
+    }
+
+    private static void printAnswer(StratifiedSample.Answer a, boolean answer) {
+        printAnswer(a, answer ? "TRUE" : "FALSE");
+    }
+
+    // The answer, then where it came from: the sample, or the exact scan when the sample couldn't decide
+    private static void printAnswer(StratifiedSample.Answer a, String line) {
+        System.out.println(line);
+        System.out.println(!a.decided() ? "  exact scan, the sample can't decide: " + a.detail
+                : (a.exact ? "  exact: " : "  approx: ") + a.detail);
+    }
+
+    // ---------- Main ----------
+
+    // Value of a --name=K option; exits with a usage error unless K is a positive integer.
+    static int positiveIntOption(String arg) {
+        String name = arg.substring(0, arg.indexOf('='));
+        try {
+            int v = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            if (v <= 0) throw new NumberFormatException();
+            return v;
+        } catch (NumberFormatException e) {
+            System.err.println(name + " must be a positive integer.");
+            System.exit(2);
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        List<String> positional = new ArrayList<>();
+        boolean stream = false;
+        int threads = 1;
+        boolean snapshot = false, incremental = false, offHeap = false;
+        int dumpLimit = Integer.MAX_VALUE;
+        int servePort = -1;
+        boolean quantiles = false, mlr = false, metrics = false;
+        int approx = 0; // sampled rows per stratum; 0: exact report
+        for (String arg : args) {
+            if (arg.equals("--stream")) stream = true;
+            else if (arg.equals("--snapshot")) snapshot = true;
+            else if (arg.equals("--incremental")) incremental = true;
+            else if (arg.equals("--offheap")) offHeap = true;
+            else if (arg.startsWith("--threads=")) threads = positiveIntOption(arg);
+            else if (arg.startsWith("--dump=")) dumpLimit = positiveIntOption(arg);
+            else if (arg.equals("--no-dump")) dumpLimit = 0;
+            else if (arg.equals("--serve")) servePort = QueryServer.DEFAULT_PORT;
+            else if (arg.startsWith("--serve=")) servePort = positiveIntOption(arg);
+            else if (arg.equals("--quantiles")) quantiles = true;
+            else if (arg.equals("--mlr")) mlr = true;
+            else if (arg.equals("--metrics")) metrics = true;
+            else if (arg.equals("--approx")) approx = StratifiedSample.DEFAULT_PER_STRATUM;
+            else if (arg.startsWith("--approx=")) approx = positiveIntOption(arg);
+            else positional.add(arg);
+        }
+        if (positional.size() < 2 || positional.size() > 3) {
+            System.err.println("Usage: java Driver [--stream | --incremental] [--threads=K] [--snapshot] [--offheap] [--dump=K | --no-dump] [--quantiles] [--mlr] [--metrics] [--approx[=K]] [--serve[=PORT]] <path-to-insurance.csv> <N> [new-charges-file]");
+            System.exit(2);
+        }
+        if (servePort > 0 && (stream || incremental)) {
+            System.err.println("--serve needs the rows in memory; it can't be combined with --stream or --incremental.");
+            System.exit(2);
+        }
+        if (approx > 0 && (incremental || servePort > 0)) {
+            System.err.println("--approx can't be combined with --incremental or --serve.");
+            System.exit(2);
+        }
+        if (approx == 1) {
+            System.err.println("--approx needs at least 2 rows per stratum.");
+            System.exit(2);
+        }
+        if (offHeap && (stream || incremental || servePort > 0)) {
+            System.err.println("--offheap stores the rows; it can't be combined with --stream, --incremental or --serve.");
+            System.exit(2);
+        }
+        String path = positional.get(0);
+        String chargesPath = positional.size() == 3 ? positional.get(2) : null;
+        int N;
+        try {
+            N = Integer.parseInt(positional.get(1));
+            if (N <= 0) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            System.err.println("N must be a positive integer.");
+            System.exit(2);
+            return;
+        }
 
+        if (servePort > 0) quantiles = mlr = true; // for /quantiles and /regression/multiple
+        if (metrics) Metrics.enableSummary();
 
-            // Feature 20
-            System.out.println("\n=== Feature 20: Regression charges ~ BMI ===");
-            feature20_regressionBMI(records);
+        try {
+            if (approx > 0) {
+                runApprox(path, N, approx, stream, offHeap, snapshot, threads);
+                if (metrics) Metrics.printSummary();
+                return;
+            }
 
-            // Extra: age histograms + children counts
-            
-            printBinnedHistogram(ages, 5, 50);
-            System.out.println("\n=== Feature 21: Regression charges ~ children (r + 22 predictions) ===");
-            feature21_regressionChildren(records);
+            FeatureAggregator agg = new FeatureAggregator(5, quantiles, mlr);
+            if (stream) {
+                Metrics.Phase phase = Metrics.begin("stream (parse+aggregate)");
+                long streamed = streamFirstN(path, N, agg);
+                phase.end(streamed);
+                System.out.println("=== Feature 01: Stored First N Records ===");
+                System.out.println("Streamed " + streamed + " records (not stored in --stream mode).");
+                printReport(agg, readChargesArray(chargesPath));
+                if (metrics) Metrics.printSummary();
+                return;
+            }
+
+            if (incremental) {
+                Metrics.Phase phase = Metrics.begin("incremental (aggregate)");
+                agg = IncrementalReport.aggregate(path, N, 5, quantiles, mlr);
+                phase.end(agg.rows);
+                System.out.println("=== Feature 01: Stored First N Records ===");
+                System.out.println("Aggregated " + agg.rows + " records (not stored in --incremental mode).");
+                printReport(agg, readChargesArray(chargesPath));
+                if (metrics) Metrics.printSummary();
+                return;
+            }
+
+            if (offHeap) {
+                Metrics.Phase phase = Metrics.begin(snapshot ? "load (map snapshot or parse)" : "load (parse off-heap)");
+                OffHeapTable table = loadOffHeap(path, N, snapshot);
+                phase.end(table.size());
+                phase = Metrics.begin("feature01", Math.min(dumpLimit, table.size()));
+                System.out.println("=== Feature 01: Stored First N Records ===");
+                printFeature01(table, dumpLimit);
+                phase.end();
+                phase = Metrics.begin("aggregate", table.size());
+                agg = FeatureAggregator.aggregate(table, 5, quantiles, mlr, threads); // same split tree for any thread count
+                phase.end();
+                printReport(agg, readChargesArray(chargesPath));
+                if (metrics) Metrics.printSummary();
+                return;
+            }
+
+            Metrics.Phase phase = Metrics.begin(snapshot ? "load (snapshot or parse)" : "load (parse)");
+            InsuranceTable table = snapshot ? loadTableWithSnapshot(path, N, threads) : loadTable(path, N, threads);
+            phase.end(table.size());
 
-        
-            System.out.println("\n=== Feature 22: Regression region_code ~ charges (r + 33 predictions) ===");
-            Map<Integer, Integer> byChildren = childrenCounts(records);
-            printChildrenCounts(byChildren);
+            if (servePort < 0) {
+                phase = Metrics.begin("feature01", Math.min(dumpLimit, table.size()));
+                System.out.println("=== Feature 01: Stored First N Records ===");
+                printFeature01(table, dumpLimit);
+                phase.end();
+            }
 
-            List<Double> newCharges = readChargesFile(args.length == 3 ? args[2] : null);
-            System.out.println("\n=== Feature 22: Regression (region_code ~ charges) + Pearson r + 33 predictions ===");
-            feature22_regressionChargesVsRegion(records, newCharges);
+            // Features 02-22 are all accumulated in a single scan of the table
+            phase = Metrics.begin("aggregate", table.size());
+            agg = FeatureAggregator.aggregate(table, 5, quantiles, mlr, threads); // same split tree for any thread count
+            phase.end();
+            if (servePort > 0) {
+                QueryServer server = new QueryServer(table, agg, servePort);
+                server.start();
+                System.out.println("Serving " + table.size() + " records on http://localhost:" + server.port() + "/");
+                return; // the server's dispatcher thread keeps the JVM running
+            }
+            printReport(agg, readChargesArray(chargesPath));
+            if (metrics) Metrics.printSummary();
 
         } catch (IOException e) {
             System.err.println("I/O error: " + e.getMessage());
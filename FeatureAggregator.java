@@ -0,0 +1,585 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Single-pass engine for the Feature 02-22 report. Every feature is declared as a set of
+ * small accumulators (sum/count/min/max, histograms, regression co-moments) that are all
+ * updated from the same row, so the whole report costs one scan of the data instead of one
+ * per feature. Aggregators over disjoint row ranges can be merged, which is how the
+ * fork/join mode below runs the scan on several cores.
+ */
+final class FeatureAggregator {
+
+    final int bmiBinSize;
+    final boolean quantiles; // keep the quantile sketches below (null otherwise)
+    final boolean mlr;       // keep the charges model cells below (null otherwise)
+    long rows = 0;
+    private long version; // 0: changed since the last version() call
+
+    // Feature 02
+    final Driver.Stats age = new Driver.Stats(), bmi = new Driver.Stats();
+    final Driver.Stats children = new Driver.Stats(), charges = new Driver.Stats();
+    // Features 03/05, 04, 14 and the children counts
+    final IntHistogram ageCounts = new IntHistogram();
+    final IntHistogram bmiBins = new IntHistogram();
+    final IntHistogram smokerAgeCounts = new IntHistogram();
+    final IntHistogram childrenCounts = new IntHistogram();
+    // Features 07 and 15: charges per lower-cased region
+    final Map<String, Driver.Stats> regionCharges = new TreeMap<>();
+    // Feature 08
+    final Driver.Stats oldCharges = new Driver.Stats(), youngCharges = new Driver.Stats();
+    // Feature 09: charges per BMI band (<30, 30-45, >45)
+    final Driver.Stats lowBmiCharges = new Driver.Stats(), midBmiCharges = new Driver.Stats(), highBmiCharges = new Driver.Stats();
+    // Feature 10: charges per children value
+    final StatsByKey chargesByChildren = new StatsByKey();
+    // Features 06, 11, 13, 16: smoker vs non-smoker
+    final Driver.Stats smokerCharges = new Driver.Stats(), nonSmokerCharges = new Driver.Stats();
+    final Driver.Stats smokerBmi = new Driver.Stats(), nonSmokerBmi = new Driver.Stats();
+    final Driver.Stats smokerAge = new Driver.Stats(), nonSmokerAge = new Driver.Stats();
+    // Feature 12
+    final Driver.Stats southSmokerCharges = new Driver.Stats(), otherSmokerCharges = new Driver.Stats();
+    // Features 17-19: south vs north
+    final Driver.Stats southAge = new Driver.Stats(), northAge = new Driver.Stats();
+    final Driver.Stats southBmi = new Driver.Stats(), northBmi = new Driver.Stats();
+    final Driver.Stats southChildren = new Driver.Stats(), northChildren = new Driver.Stats();
+    long southSmokers = 0, northSmokers = 0;
+    // Feature 02 quantiles: charges and BMI overall, charges per smoker group and per region
+    final QuantileSketch chargesSketch, bmiSketch, smokerChargesSketch, nonSmokerChargesSketch;
+    final Map<String, QuantileSketch> regionChargesSketches = new TreeMap<>();
+    // Features 20-22 (and the --mlr charges model below)
+    final OnlineRegression bmiFit = new OnlineRegression();
+    final OnlineRegression childrenFit = new OnlineRegression();
+    final OnlineRegression regionFit = new OnlineRegression(); // x = charges, y = region code
+    // charges ~ age + bmi + children + smoker + region (one-hot, northeast as the baseline), kept
+    // as one age/bmi/children fit per (smoker, region code) cell: smoker and region are constant
+    // within a cell, so each row updates a 3-predictor fit and chargesModel() widens the cells
+    static final String[] CHARGES_MODEL_TERMS = chargesModelTerms();
+    private static final int REGIONS = Driver.REGION_CODE.size();
+    final MultipleRegression[] chargesModelCells; // smoker * REGIONS + region code
+    private final double[] modelRow = new double[3];
+
+    private static String[] chargesModelTerms() {
+        List<String> terms = new ArrayList<>(List.of("age", "bmi", "children", "smoker"));
+        for (Map.Entry<String, Integer> e : Driver.REGION_CODE.entrySet()) {
+            if (e.getValue() > 0) terms.add("region " + e.getKey());
+        }
+        return terms.toArray(new String[0]);
+    }
+
+    /**
+     * The charges model over every row with a known region (rows with a NaN are left out);
+     * without rows unless built with mlr.
+     */
+    MultipleRegression chargesModel() {
+        MultipleRegression model = new MultipleRegression(CHARGES_MODEL_TERMS);
+        if (!mlr) return model;
+        for (int cell = 0; cell < chargesModelCells.length; cell++) {
+            double[] fixed = new double[1 + REGIONS - 1];
+            fixed[0] = cell / REGIONS; // smoker
+            int region = cell % REGIONS;
+            if (region > 0) fixed[region] = 1;
+            model.mergeWithConstants(chargesModelCells[cell], fixed);
+        }
+        return model;
+    }
+
+    // Per-dictionary-code lookups for the table currently being scanned
+    private InsuranceTable.Dictionary boundSmokers, boundRegions;
+    private int boundSmokerSize = -1, boundRegionSize = -1;
+    private boolean[] smokerByCode, southByCode, northByCode;
+    private Driver.Stats[] regionSlotByCode;
+    private QuantileSketch[] regionSketchByCode;
+    private int[] regionOrdinalByCode;
+
+    FeatureAggregator(int bmiBinSize) { this(bmiBinSize, false, false); }
+
+    FeatureAggregator(int bmiBinSize, boolean quantiles, boolean mlr) {
+        this.bmiBinSize = bmiBinSize;
+        this.quantiles = quantiles;
+        this.mlr = mlr;
+        chargesModelCells = mlr ? new MultipleRegression[2 * REGIONS] : null;
+        if (mlr) for (int i = 0; i < chargesModelCells.length; i++) chargesModelCells[i] = new MultipleRegression("age", "bmi", "children");
+        chargesSketch = quantiles ? new QuantileSketch() : null;
+        bmiSketch = quantiles ? new QuantileSketch() : null;
+        smokerChargesSketch = quantiles ? new QuantileSketch() : null;
+        nonSmokerChargesSketch = quantiles ? new QuantileSketch() : null;
+    }
+
+    void accept(InsuranceTable t) { accept(t, 0, t.size()); }
+
+    /** Version of the accumulated state for ResultCache keys; changes with every accept or merge. */
+    long version() {
+        if (version == 0) version = ResultCache.nextVersion();
+        return version;
+    }
+
+    void accept(InsuranceTable t, int from, int to) {
+        version = 0;
+        bind(t.smokerDict, t.regionDict);
+        for (int i = from; i < to; i++) {
+            add(t.age[i], t.bmi[i], t.children[i], t.smokerCode(i), t.regionCode(i), t.charges[i]);
+        }
+    }
+
+    /** Rows [from, to) of an off-heap table, read in place from its column chunks. */
+    void accept(OffHeapTable t, int from, int to) {
+        version = 0;
+        bind(t.smokerDict, t.regionDict);
+        for (int row = from; row < to; ) {
+            int c = row >>> OffHeapTable.CHUNK_SHIFT, i = row & OffHeapTable.CHUNK_MASK;
+            int end = i + Math.min(to - row, OffHeapTable.CHUNK_ROWS - i);
+            ByteBuffer bmiCol = t.bmi[c], chargesCol = t.charges[c], ageCol = t.age[c];
+            ByteBuffer childrenCol = t.children[c], smokerCol = t.smoker[c], regionCol = t.region[c];
+            for (; i < end; i++, row++) {
+                add(ageCol.getInt(i << 2), bmiCol.getDouble(i << 3), childrenCol.getInt(i << 2),
+                    smokerCol.getChar(i << 1), regionCol.getChar(i << 1), chargesCol.getDouble(i << 3));
+            }
+        }
+    }
+
+    /** Rebuilds the code lookups when the dictionaries changed (or grew) since the last batch. */
+    private void bind(InsuranceTable.Dictionary smokers, InsuranceTable.Dictionary regions) {
+        if (smokers != boundSmokers || smokers.size() != boundSmokerSize) {
+            boundSmokers = smokers;
+            boundSmokerSize = smokers.size();
+            smokerByCode = smokers.flags(s -> "yes".equalsIgnoreCase(s));
+        }
+        if (regions != boundRegions || regions.size() != boundRegionSize) {
+            int from = regions == boundRegions ? boundRegionSize : 0; // codes already bound
+            int n = regions.size();
+            boundRegions = regions;
+            boundRegionSize = n;
+            southByCode = Arrays.copyOf(from == 0 ? new boolean[0] : southByCode, n);
+            northByCode = Arrays.copyOf(from == 0 ? new boolean[0] : northByCode, n);
+            regionSlotByCode = Arrays.copyOf(from == 0 ? new Driver.Stats[0] : regionSlotByCode, n);
+            regionSketchByCode = quantiles ? Arrays.copyOf(from == 0 ? new QuantileSketch[0] : regionSketchByCode, n) : null;
+            regionOrdinalByCode = Arrays.copyOf(from == 0 ? new int[0] : regionOrdinalByCode, n);
+            for (int c = from; c < n; c++) {
+                String lower = regions.decode(c).toLowerCase(); // same folding as Dictionary.lowerCased()
+                southByCode[c] = lower.contains("south");
+                northByCode[c] = lower.contains("north");
+                regionSlotByCode[c] = regionCharges.computeIfAbsent(lower, k -> new Driver.Stats());
+                regionOrdinalByCode[c] = Driver.REGION_CODE.getOrDefault(lower, -1);
+                if (quantiles) regionSketchByCode[c] = regionChargesSketches.computeIfAbsent(lower, k -> new QuantileSketch());
+            }
+        }
+    }
+
+    private void add(int a, double b, int c, int smokerCode, int regionCode, double ch) {
+        rows++;
+        age.add(a); bmi.add(b); children.add(c); charges.add(ch);
+        ageCounts.add(a);
+        bmiBins.add(((int) Math.floor(b / bmiBinSize)) * bmiBinSize);
+        childrenCounts.add(c);
+        regionSlotByCode[regionCode].add(ch);
+
+        if (a >= 50) oldCharges.add(ch);
+        if (a <= 20) youngCharges.add(ch);
+
+        if (b < 30) lowBmiCharges.add(ch);
+        else if (b <= 45) midBmiCharges.add(ch);
+        else highBmiCharges.add(ch);
+
+        chargesByChildren.get(c).add(ch);
+
+        boolean smoker = smokerByCode[smokerCode];
+        boolean south = southByCode[regionCode];
+        if (smoker) {
+            smokerCharges.add(ch); smokerBmi.add(b); smokerAge.add(a);
+            smokerAgeCounts.add(a);
+            if (south) southSmokerCharges.add(ch);
+            else otherSmokerCharges.add(ch);
+        } else {
+            nonSmokerCharges.add(ch); nonSmokerBmi.add(b); nonSmokerAge.add(a);
+        }
+
+        if (south) {
+            southAge.add(a); southBmi.add(b); southChildren.add(c);
+            if (smoker) southSmokers++;
+        } else if (northByCode[regionCode]) {
+            northAge.add(a); northBmi.add(b); northChildren.add(c);
+            if (smoker) northSmokers++;
+        }
+
+        if (quantiles) {
+            chargesSketch.add(ch);
+            bmiSketch.add(b);
+            (smoker ? smokerChargesSketch : nonSmokerChargesSketch).add(ch);
+            regionSketchByCode[regionCode].add(ch);
+        }
+
+        bmiFit.add(b, ch);
+        childrenFit.add(c, ch);
+        int ordinal = regionOrdinalByCode[regionCode];
+        if (ordinal >= 0) {
+            regionFit.add(ch, ordinal);
+            if (mlr) {
+                modelRow[0] = a; modelRow[1] = b; modelRow[2] = c;
+                chargesModelCells[(smoker ? REGIONS : 0) + ordinal].add(modelRow, ch);
+            }
+        }
+    }
+
+    // ---------- Results (same shapes as the Driver feature methods) ----------
+
+    Map<String, Driver.Stats> computeFeature02Stats() {
+        Map<String, Driver.Stats> map = new LinkedHashMap<>();
+        map.put("age", age);
+        map.put("bmi", bmi);
+        map.put("children", children);
+        map.put("charges", charges);
+        return map;
+    }
+
+    Map<String, Integer> feature06_smokerCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("smoker", (int) smokerCharges.count);
+        counts.put("non-smoker", (int) nonSmokerCharges.count);
+        return counts;
+    }
+
+    Map<String, Integer> regionCounts() {
+        Map<String, Integer> m = new TreeMap<>();
+        for (Map.Entry<String, Driver.Stats> e : regionCharges.entrySet()) {
+            if (e.getValue().count > 0) m.put(e.getKey(), (int) e.getValue().count);
+        }
+        return m;
+    }
+
+    boolean feature07_fairWithin5Percent() {
+        return Driver.fairWithin5Percent(regionCounts());
+    }
+
+    boolean feature08_oldVsYoungCharges() {
+        if (oldCharges.count == 0 || youngCharges.count == 0) return false;
+        return oldCharges.avg() >= 2.0 * youngCharges.avg();
+    }
+
+    boolean feature09_bmi30to45HasWiderChargeRange() {
+        double mr = range(midBmiCharges);
+        return mr > range(lowBmiCharges) && mr > range(highBmiCharges);
+    }
+
+    private static double range(Driver.Stats s) {
+        return s.count > 0 ? s.max - s.min : 0;
+    }
+
+    boolean feature10_lowerChargePerChild() {
+        double prev = Double.MAX_VALUE;
+        for (int c : chargesByChildren.keys()) {
+            double avg = chargesByChildren.get(c).avg();
+            double perChild = (c == 0) ? avg : avg / c;
+            if (perChild > prev) return false;
+            prev = perChild;
+        }
+        return true;
+    }
+
+    boolean feature11_smokersHigherAvgAndWider() {
+        if (smokerCharges.count == 0 || nonSmokerCharges.count == 0) return false;
+        return smokerCharges.avg() > nonSmokerCharges.avg()
+                && (smokerCharges.max - smokerCharges.min) > (nonSmokerCharges.max - nonSmokerCharges.min);
+    }
+
+    boolean feature12_southSmokers() {
+        if (southSmokerCharges.count == 0 || otherSmokerCharges.count == 0) return false;
+        return southSmokerCharges.avg() >= 1.25 * otherSmokerCharges.avg();
+    }
+
+    boolean feature13_smokersLowerBmi() {
+        if (smokerBmi.count == 0 || nonSmokerBmi.count == 0) return false;
+        return smokerBmi.avg() < nonSmokerBmi.avg();
+    }
+
+    List<Map.Entry<String, Double>> feature15_regionsByAvgChargesDesc() {
+        List<Map.Entry<String, Double>> out = new ArrayList<>();
+        for (Map.Entry<String, Driver.Stats> e : regionCharges.entrySet()) {
+            if (e.getValue().count > 0) out.add(Map.entry(e.getKey(), e.getValue().avg()));
+        }
+        out.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+        return out;
+    }
+
+    Map<String, Double> feature16_avgAges() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        out.put("smoker_avg_age", smokerAge.avg());
+        out.put("nonsmoker_avg_age", nonSmokerAge.avg());
+        return out;
+    }
+
+    double[] feature17_southVsNorthSmokingRatesAndAvgAge() {
+        double sRate = southAge.count == 0 ? 0 : (southSmokers / (double) southAge.count);
+        double nRate = northAge.count == 0 ? 0 : (northSmokers / (double) northAge.count);
+        return new double[]{sRate, nRate, southAge.avg()};
+    }
+
+    Map<String, Double> feature18_bmiSouthNorth() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        out.put("south_avg_bmi", southBmi.avg());
+        out.put("north_avg_bmi", northBmi.avg());
+        return out;
+    }
+
+    Map<String, Double> feature19_childrenSouthVsNorthAges() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        out.put("south_avg_children", southChildren.avg());
+        out.put("north_avg_children", northChildren.avg());
+        out.put("south_avg_age", southAge.avg());
+        out.put("north_avg_age", northAge.avg());
+        return out;
+    }
+
+    /**
+     * Quantile sketches by group name: "charges", "bmi", "charges smoker", "charges non-smoker",
+     * then "charges <region>" for every region seen. Empty unless built with quantiles.
+     */
+    Map<String, QuantileSketch> quantileSketches() {
+        Map<String, QuantileSketch> out = new LinkedHashMap<>();
+        if (!quantiles) return out;
+        out.put("charges", chargesSketch);
+        out.put("bmi", bmiSketch);
+        out.put("charges smoker", smokerChargesSketch);
+        out.put("charges non-smoker", nonSmokerChargesSketch);
+        for (Map.Entry<String, QuantileSketch> e : regionChargesSketches.entrySet()) {
+            if (e.getValue().count() > 0) out.put("charges " + e.getKey(), e.getValue());
+        }
+        return out;
+    }
+
+    void feature20_regressionBMI() {
+        Driver.printRegressionBMI(bmiFit);
+    }
+
+    void feature21_regressionChildren() {
+        Driver.printRegressionChildren(childrenFit);
+    }
+
+    // ---------- Merging partial results ----------
+
+    /** Folds the accumulators of other (built over a later range of rows) into this one. */
+    void merge(FeatureAggregator o) {
+        if (o.bmiBinSize != bmiBinSize) throw new IllegalArgumentException("BMI bin sizes differ.");
+        if (o.quantiles != quantiles) throw new IllegalArgumentException("Only one aggregator keeps quantile sketches.");
+        if (o.mlr != mlr) throw new IllegalArgumentException("Only one aggregator keeps the charges model.");
+        version = 0;
+        rows += o.rows;
+        age.merge(o.age); bmi.merge(o.bmi); children.merge(o.children); charges.merge(o.charges);
+        ageCounts.merge(o.ageCounts);
+        bmiBins.merge(o.bmiBins);
+        smokerAgeCounts.merge(o.smokerAgeCounts);
+        childrenCounts.merge(o.childrenCounts);
+        mergeStats(regionCharges, o.regionCharges);
+        oldCharges.merge(o.oldCharges); youngCharges.merge(o.youngCharges);
+        lowBmiCharges.merge(o.lowBmiCharges); midBmiCharges.merge(o.midBmiCharges); highBmiCharges.merge(o.highBmiCharges);
+        chargesByChildren.merge(o.chargesByChildren);
+        smokerCharges.merge(o.smokerCharges); nonSmokerCharges.merge(o.nonSmokerCharges);
+        smokerBmi.merge(o.smokerBmi); nonSmokerBmi.merge(o.nonSmokerBmi);
+        smokerAge.merge(o.smokerAge); nonSmokerAge.merge(o.nonSmokerAge);
+        southSmokerCharges.merge(o.southSmokerCharges); otherSmokerCharges.merge(o.otherSmokerCharges);
+        southAge.merge(o.southAge); northAge.merge(o.northAge);
+        southBmi.merge(o.southBmi); northBmi.merge(o.northBmi);
+        southChildren.merge(o.southChildren); northChildren.merge(o.northChildren);
+        southSmokers += o.southSmokers; northSmokers += o.northSmokers;
+        bmiFit.merge(o.bmiFit); childrenFit.merge(o.childrenFit); regionFit.merge(o.regionFit);
+        if (mlr) for (int i = 0; i < chargesModelCells.length; i++) chargesModelCells[i].merge(o.chargesModelCells[i]);
+        if (quantiles) {
+            chargesSketch.merge(o.chargesSketch); bmiSketch.merge(o.bmiSketch);
+            smokerChargesSketch.merge(o.smokerChargesSketch); nonSmokerChargesSketch.merge(o.nonSmokerChargesSketch);
+            for (Map.Entry<String, QuantileSketch> e : o.regionChargesSketches.entrySet()) {
+                regionChargesSketches.computeIfAbsent(e.getKey(), k -> new QuantileSketch()).merge(e.getValue());
+            }
+        }
+    }
+
+    private static <K> void mergeStats(Map<K, Driver.Stats> into, Map<K, Driver.Stats> from) {
+        for (Map.Entry<K, Driver.Stats> e : from.entrySet()) {
+            into.computeIfAbsent(e.getKey(), k -> new Driver.Stats()).merge(e.getValue());
+        }
+    }
+
+    // ---------- Persistence (incremental mode) ----------
+
+    /**
+     * Writes every accumulator exactly (doubles as their bits), so an aggregator read back with
+     * readFrom continues as if it had never been interrupted.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(bmiBinSize);
+        out.writeBoolean(quantiles);
+        out.writeBoolean(mlr);
+        out.writeLong(rows);
+        for (Driver.Stats st : allStats()) writeStats(out, st);
+        for (IntHistogram h : allCounts()) {
+            out.writeInt(h.size());
+            for (int key : h.keys()) { out.writeInt(key); out.writeInt(h.get(key)); }
+        }
+        out.writeInt(regionCharges.size());
+        for (Map.Entry<String, Driver.Stats> e : regionCharges.entrySet()) { out.writeUTF(e.getKey()); writeStats(out, e.getValue()); }
+        out.writeInt(chargesByChildren.size());
+        for (int c : chargesByChildren.keys()) { out.writeInt(c); writeStats(out, chargesByChildren.get(c)); }
+        out.writeLong(southSmokers);
+        out.writeLong(northSmokers);
+        for (OnlineRegression r : new OnlineRegression[]{bmiFit, childrenFit, regionFit}) {
+            out.writeLong(r.n);
+            out.writeDouble(r.meanX); out.writeDouble(r.meanY);
+            out.writeDouble(r.sxx); out.writeDouble(r.syy); out.writeDouble(r.sxy);
+        }
+        if (mlr) for (MultipleRegression m : chargesModelCells) m.writeTo(out);
+        if (quantiles) {
+            for (QuantileSketch s : new QuantileSketch[]{chargesSketch, bmiSketch, smokerChargesSketch, nonSmokerChargesSketch}) s.writeTo(out);
+            out.writeInt(regionChargesSketches.size());
+            for (Map.Entry<String, QuantileSketch> e : regionChargesSketches.entrySet()) { out.writeUTF(e.getKey()); e.getValue().writeTo(out); }
+        }
+    }
+
+    static FeatureAggregator readFrom(DataInput in) throws IOException {
+        FeatureAggregator agg = new FeatureAggregator(in.readInt(), in.readBoolean(), in.readBoolean());
+        agg.rows = in.readLong();
+        for (Driver.Stats st : agg.allStats()) readStats(in, st);
+        for (IntHistogram h : agg.allCounts()) {
+            for (int i = in.readInt(); i > 0; i--) h.add(in.readInt(), in.readInt());
+        }
+        for (int i = in.readInt(); i > 0; i--) readStats(in, agg.regionCharges.computeIfAbsent(in.readUTF(), k -> new Driver.Stats()));
+        for (int i = in.readInt(); i > 0; i--) readStats(in, agg.chargesByChildren.get(in.readInt()));
+        agg.southSmokers = in.readLong();
+        agg.northSmokers = in.readLong();
+        for (OnlineRegression r : new OnlineRegression[]{agg.bmiFit, agg.childrenFit, agg.regionFit}) {
+            r.n = in.readLong();
+            r.meanX = in.readDouble(); r.meanY = in.readDouble();
+            r.sxx = in.readDouble(); r.syy = in.readDouble(); r.sxy = in.readDouble();
+        }
+        if (agg.mlr) for (MultipleRegression m : agg.chargesModelCells) m.readFrom(in);
+        if (agg.quantiles) {
+            for (QuantileSketch s : new QuantileSketch[]{agg.chargesSketch, agg.bmiSketch, agg.smokerChargesSketch, agg.nonSmokerChargesSketch}) {
+                s.readFrom(in);
+            }
+            for (int i = in.readInt(); i > 0; i--) agg.regionChargesSketches.computeIfAbsent(in.readUTF(), k -> new QuantileSketch()).readFrom(in);
+        }
+        return agg;
+    }
+
+    /** An independent aggregator with the same state. */
+    FeatureAggregator copy() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeTo(new DataOutputStream(bytes));
+            return readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory streams do not fail
+        }
+    }
+
+    private Driver.Stats[] allStats() {
+        return new Driver.Stats[]{
+            age, bmi, children, charges, oldCharges, youngCharges, lowBmiCharges, midBmiCharges, highBmiCharges,
+            smokerCharges, nonSmokerCharges, smokerBmi, nonSmokerBmi, smokerAge, nonSmokerAge,
+            southSmokerCharges, otherSmokerCharges, southAge, northAge, southBmi, northBmi, southChildren, northChildren
+        };
+    }
+
+    private List<IntHistogram> allCounts() {
+        return List.of(ageCounts, bmiBins, smokerAgeCounts, childrenCounts);
+    }
+
+    private static void writeStats(DataOutput out, Driver.Stats st) throws IOException {
+        out.writeLong(st.count);
+        out.writeDouble(st.sum); out.writeDouble(st.min); out.writeDouble(st.max);
+    }
+
+    private static void readStats(DataInput in, Driver.Stats st) throws IOException {
+        st.count = in.readLong();
+        st.sum = in.readDouble(); st.min = in.readDouble(); st.max = in.readDouble();
+    }
+
+    // ---------- Parallel execution (fork/join) ----------
+    static final int LEAF_ROWS = 1 << 16;
+
+    /**
+     * Aggregates t on pool by splitting the rows in halves down to LEAF_ROWS and merging the
+     * partial aggregators left-to-right. The split tree depends only on the row count, so the
+     * result (down to the order of every floating-point addition and the state of the quantile
+     * sketches) is the same for any number of threads, including one. Callers that want that
+     * guarantee must aggregate through here for every thread count, not feed rows with accept.
+     */
+    static FeatureAggregator aggregateParallel(InsuranceTable t, int bmiBinSize, ForkJoinPool pool) {
+        return aggregateParallel(t, bmiBinSize, false, false, pool);
+    }
+
+    static FeatureAggregator aggregateParallel(InsuranceTable t, int bmiBinSize, boolean quantiles, boolean mlr, ForkJoinPool pool) {
+        return pool.invoke(new RangeTask((agg, from, to) -> agg.accept(t, from, to), bmiBinSize, quantiles, mlr, 0, t.size()));
+    }
+
+    /** aggregateParallel over an off-heap table; the same split tree, so the same result. */
+    static FeatureAggregator aggregateParallel(OffHeapTable t, int bmiBinSize, boolean quantiles, boolean mlr, ForkJoinPool pool) {
+        return pool.invoke(new RangeTask((agg, from, to) -> agg.accept(t, from, to), bmiBinSize, quantiles, mlr, 0, t.size()));
+    }
+
+    /** aggregateParallel on a pool of threads workers (threads >= 1), shut down afterwards. */
+    static FeatureAggregator aggregate(InsuranceTable t, int bmiBinSize, boolean quantiles, boolean mlr, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return aggregateParallel(t, bmiBinSize, quantiles, mlr, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static FeatureAggregator aggregate(OffHeapTable t, int bmiBinSize, boolean quantiles, boolean mlr, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return aggregateParallel(t, bmiBinSize, quantiles, mlr, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Feeds rows [from, to) of some table to agg. */
+    private interface Rows {
+        void feed(FeatureAggregator agg, int from, int to);
+    }
+
+    private static final class RangeTask extends RecursiveTask<FeatureAggregator> {
+        private static final long serialVersionUID = 1L;
+
+        private final Rows rows;
+        private final int bmiBinSize, from, to;
+        private final boolean quantiles, mlr;
+
+        RangeTask(Rows rows, int bmiBinSize, boolean quantiles, boolean mlr, int from, int to) {
+            this.rows = rows; this.bmiBinSize = bmiBinSize; this.quantiles = quantiles; this.mlr = mlr; this.from = from; this.to = to;
+        }
+
+        @Override
+        protected FeatureAggregator compute() {
+            if (to - from <= LEAF_ROWS) {
+                Metrics.Phase phase = Metrics.begin("aggregate (fork/join leaf)", to - from);
+                FeatureAggregator agg = new FeatureAggregator(bmiBinSize, quantiles, mlr);
+                rows.feed(agg, from, to);
+                phase.end();
+                return agg;
+            }
+            int mid = (from + to) >>> 1;
+            RangeTask left = new RangeTask(rows, bmiBinSize, quantiles, mlr, from, mid);
+            left.fork();
+            FeatureAggregator right = new RangeTask(rows, bmiBinSize, quantiles, mlr, mid, to).compute();
+            FeatureAggregator result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+}
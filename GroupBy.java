@@ -0,0 +1,455 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Group-by/aggregate queries over an InsuranceTable, e.g.
+ * <pre>
+ *   GroupBy.of(t).by(GroupBy.REGION, GroupBy.SMOKER).agg(avg(CHARGES), min(BMI), count())
+ * </pre>
+ * Each dimension maps a row to a dense group code through a lookup table over the
+ * dictionary codes (or the value range of a numeric column), so a row's group is a few
+ * array reads and the accumulators are flat arrays indexed by the combined code, not maps
+ * keyed by strings. Rows are scanned in blocks: the block's group codes are computed once,
+ * then every aggregate runs as a tight loop over the block.
+ *
+ * Each group's values are accumulated in row order, so sums and averages are bit-identical
+ * to a hand-written loop over the same rows.
+ */
+final class GroupBy {
+    private static final int BLOCK = 4096;
+    static final int MAX_GROUPS = 1 << 20;
+
+    // ---------- Dimensions ----------
+
+    /** A way to split rows into groups; bound to a table's dictionaries before each scan. */
+    abstract static class Dimension {
+        final String name;
+
+        Dimension(String name) { this.name = name; }
+
+        abstract Bound bind(InsuranceTable t);
+    }
+
+    /** Lower-cased region. */
+    static final Dimension REGION = new Dimension("region") {
+        Bound bind(InsuranceTable t) { return Bound.categories(name, t.region, t.regionDict.lowerCased()); }
+    };
+    static final Dimension SEX = new Dimension("sex") {
+        Bound bind(InsuranceTable t) { return Bound.categories(name, t.sex, values(t.sexDict)); }
+    };
+    /** "yes" (any case) or "no" (every other value). */
+    static final Dimension SMOKER = flag("smoker", "no", "yes", t -> t.smoker,
+            t -> t.smokerDict.flags(s -> "yes".equalsIgnoreCase(s)));
+    /** "south" when the region contains "south", else "north" when it contains "north"; other rows are left out. */
+    static final Dimension SOUTH_NORTH = new Dimension("south_north") {
+        Bound bind(InsuranceTable t) {
+            String[] lower = t.regionDict.lowerCased();
+            int[] lookup = new int[lower.length];
+            for (int c = 0; c < lower.length; c++) {
+                lookup[c] = lower[c].contains("south") ? 1 : lower[c].contains("north") ? 0 : -1;
+            }
+            return new Bound(name, t.region, lookup, new String[]{"north", "south"});
+        }
+    };
+    /** "south" when the region contains "south", else "other". */
+    static final Dimension SOUTH = flag("south", "other", "south", t -> t.region,
+            t -> t.regionDict.flags(s -> s.toLowerCase().contains("south")));
+    static final Dimension CHILDREN = new Dimension("children") {
+        Bound bind(InsuranceTable t) { return Bound.range(name, t.children, t.size()); }
+    };
+    static final Dimension AGE = new Dimension("age") {
+        Bound bind(InsuranceTable t) { return Bound.range(name, t.age, t.size()); }
+    };
+
+    static final List<Dimension> DIMENSIONS = List.of(REGION, SEX, SMOKER, SOUTH_NORTH, SOUTH, CHILDREN, AGE);
+
+    static Dimension dimension(String name) {
+        for (Dimension d : DIMENSIONS) if (d.name.equals(name)) return d;
+        throw new IllegalArgumentException("Unknown dimension: " + name);
+    }
+
+    /** Two groups, no and yes, by a per-dictionary-code flag of a categorical column. */
+    private static Dimension flag(String name, String no, String yes, Function<InsuranceTable, char[]> column,
+                                  Function<InsuranceTable, boolean[]> flags) {
+        return new Dimension(name) {
+            Bound bind(InsuranceTable t) {
+                boolean[] f = flags.apply(t);
+                int[] lookup = new int[f.length];
+                for (int c = 0; c < f.length; c++) lookup[c] = f[c] ? 1 : 0;
+                return new Bound(name, column.apply(t), lookup, new String[]{no, yes});
+            }
+        };
+    }
+
+    private static String[] values(InsuranceTable.Dictionary dict) {
+        String[] out = new String[dict.size()];
+        for (int c = 0; c < out.length; c++) out[c] = dict.decode(c);
+        return out;
+    }
+
+    /**
+     * A dimension bound to one table: group code = lookup[column value - base]. Labels are in
+     * ascending order of group code; rows outside every group get the extra code
+     * labels.length, so the scan never branches on them and their slots are dropped at the end.
+     */
+    static final class Bound {
+        final String name;
+        final char[] codes; // the column, for dictionary-coded columns
+        final int[] ints;   // the column, for numeric (int) columns
+        final int[] lookup;
+        final int base;
+        final String[] labels;
+        final boolean numeric;
+        final int radix;    // codes per row: labels.length, plus one when some rows are left out
+
+        Bound(String name, char[] column, int[] lookup, String[] labels) {
+            this(name, column, null, lookup, 0, labels, false);
+        }
+
+        private Bound(String name, char[] codes, int[] ints, int[] lookup, int base, String[] labels, boolean numeric) {
+            this.name = name;
+            this.codes = codes;
+            this.ints = ints;
+            this.lookup = lookup;
+            this.base = base;
+            this.labels = labels;
+            this.numeric = numeric;
+            int excluded = 0;
+            for (int i = 0; i < lookup.length; i++) {
+                if (lookup[i] < 0) {
+                    lookup[i] = labels.length;
+                    excluded = 1;
+                }
+            }
+            this.radix = labels.length + excluded;
+        }
+
+        /** Groups by dictionary value; codes whose values are equal share a group, sorted by value. */
+        static Bound categories(String name, char[] column, String[] valueByCode) {
+            Map<String, Integer> sorted = new TreeMap<>();
+            for (String v : valueByCode) sorted.put(v, 0);
+            String[] labels = sorted.keySet().toArray(new String[0]);
+            int[] lookup = new int[valueByCode.length];
+            for (int c = 0; c < lookup.length; c++) lookup[c] = Arrays.binarySearch(labels, valueByCode[c]);
+            return new Bound(name, column, lookup, labels);
+        }
+
+        /** Groups by the value of a small-range numeric column, one group per value from min to max. */
+        static Bound range(String name, int[] ints, int rows) {
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (int i = 0; i < rows; i++) {
+                int v = ints[i];
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            if (rows == 0) min = max = 0;
+            if (max - min >= MAX_GROUPS) throw new IllegalArgumentException("Too many distinct " + name + " values.");
+            int count = (int) (max - min + 1);
+            int[] lookup = new int[count];
+            String[] labels = new String[count];
+            for (int c = 0; c < count; c++) {
+                lookup[c] = c;
+                labels[c] = Long.toString(min + c);
+            }
+            return new Bound(name, null, ints, lookup, (int) min, labels, true);
+        }
+
+        int cardinality() { return labels.length; }
+
+        /** key[i] = key[i] * radix + code of row from+i (first: key[i] = code). */
+        void combine(int from, int len, int[] key, boolean first) {
+            final int[] lookup = this.lookup;
+            final int radix = first ? 0 : this.radix, base = this.base;
+            if (codes != null) {
+                final char[] col = codes;
+                for (int i = 0; i < len; i++) key[i] = key[i] * radix + lookup[col[from + i]];
+            } else {
+                final int[] col = ints;
+                for (int i = 0; i < len; i++) key[i] = key[i] * radix + lookup[col[from + i] - base];
+            }
+        }
+    }
+
+    // ---------- Measures and aggregates ----------
+
+    enum Column {
+        AGE, BMI, CHILDREN, CHARGES;
+
+        /** out[i] = value of this column in row from+i. */
+        void read(InsuranceTable t, int from, int len, double[] out) {
+            switch (this) {
+                case AGE:      for (int i = 0; i < len; i++) out[i] = t.age[from + i]; break;
+                case BMI:      System.arraycopy(t.bmi, from, out, 0, len); break;
+                case CHILDREN: for (int i = 0; i < len; i++) out[i] = t.children[from + i]; break;
+                default:       System.arraycopy(t.charges, from, out, 0, len); break;
+            }
+        }
+
+        /** out[i] = value of this column in row rows[from + i]. */
+        void gather(InsuranceTable t, int[] rows, int from, int len, double[] out) {
+            switch (this) {
+                case AGE:      for (int i = 0; i < len; i++) out[i] = t.age[rows[from + i]]; break;
+                case BMI:      for (int i = 0; i < len; i++) out[i] = t.bmi[rows[from + i]]; break;
+                case CHILDREN: for (int i = 0; i < len; i++) out[i] = t.children[rows[from + i]]; break;
+                default:       for (int i = 0; i < len; i++) out[i] = t.charges[rows[from + i]]; break;
+            }
+        }
+
+        static Column named(String name) {
+            for (Column c : values()) if (c.name().equalsIgnoreCase(name)) return c;
+            throw new IllegalArgumentException("Unknown column: " + name);
+        }
+    }
+
+    enum Kind { COUNT, SUM, AVG, MIN, MAX }
+
+    static final class Agg {
+        final Kind kind;
+        final Column column; // null for COUNT
+
+        Agg(Kind kind, Column column) {
+            this.kind = kind;
+            this.column = column;
+        }
+
+        /** Parses "count()", "count", or "avg(charges)"-style aggregates. */
+        static Agg parse(String spec) {
+            String s = spec.trim().toLowerCase();
+            if (s.equals("count") || s.equals("count()")) return count();
+            int open = s.indexOf('(');
+            if (open < 0 || !s.endsWith(")")) throw new IllegalArgumentException("Bad aggregate: " + spec);
+            Kind kind;
+            try {
+                kind = Kind.valueOf(s.substring(0, open).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown aggregate: " + spec);
+            }
+            if (kind == Kind.COUNT) return count();
+            return new Agg(kind, Column.named(s.substring(open + 1, s.length() - 1).trim()));
+        }
+
+        @Override
+        public String toString() {
+            return kind.name().toLowerCase() + "(" + (column == null ? "" : column.name().toLowerCase()) + ")";
+        }
+    }
+
+    static Agg count() { return new Agg(Kind.COUNT, null); }
+    static Agg sum(Column c) { return new Agg(Kind.SUM, c); }
+    static Agg avg(Column c) { return new Agg(Kind.AVG, c); }
+    static Agg min(Column c) { return new Agg(Kind.MIN, c); }
+    static Agg max(Column c) { return new Agg(Kind.MAX, c); }
+
+    // ---------- Query ----------
+
+    private final InsuranceTable table;
+    private final Dimension[] dims;
+
+    private GroupBy(InsuranceTable table, Dimension[] dims) {
+        this.table = table;
+        this.dims = dims;
+    }
+
+    static GroupBy of(InsuranceTable t) { return new GroupBy(t, new Dimension[0]); }
+
+    GroupBy by(Dimension... dims) { return new GroupBy(table, dims.clone()); }
+
+    /** Scans the table once and returns the aggregates of every non-empty group. */
+    Result agg(Agg... aggs) {
+        Bound[] bound = new Bound[dims.length];
+        long slots = 1;
+        for (int d = 0; d < dims.length; d++) {
+            bound[d] = dims[d].bind(table);
+            slots *= bound[d].radix;
+            if (slots > MAX_GROUPS) throw new IllegalArgumentException("Too many groups.");
+        }
+        int n = table.size(), g = (int) slots;
+        double[][] acc = new double[aggs.length][];
+        for (int a = 0; a < aggs.length; a++) {
+            if (aggs[a].kind == Kind.COUNT) continue;
+            acc[a] = new double[g];
+            if (aggs[a].kind == Kind.MIN) Arrays.fill(acc[a], Double.POSITIVE_INFINITY);
+            if (aggs[a].kind == Kind.MAX) Arrays.fill(acc[a], Double.NEGATIVE_INFINITY);
+        }
+
+        // Counts go to four interleaved copies so consecutive rows of one group don't wait on
+        // each other's increment; sums can't be split that way without changing the rounding.
+        int[] lanes = new int[4 * g];
+        int[] key = new int[Math.min(BLOCK, Math.max(n, 1))];
+        double[] values = new double[key.length];
+        for (int from = 0; from < n; from += BLOCK) {
+            int len = Math.min(BLOCK, n - from);
+            if (bound.length == 0) Arrays.fill(key, 0, len, 0);
+            for (int d = 0; d < bound.length; d++) bound[d].combine(from, len, key, d == 0);
+            int i = 0;
+            for (; i + 3 < len; i += 4) {
+                lanes[key[i]]++;
+                lanes[g + key[i + 1]]++;
+                lanes[2 * g + key[i + 2]]++;
+                lanes[3 * g + key[i + 3]]++;
+            }
+            for (; i < len; i++) lanes[key[i]]++;
+
+            Column loaded = null;
+            for (int a = 0; a < aggs.length; a++) {
+                Agg agg = aggs[a];
+                if (agg.kind == Kind.COUNT) continue;
+                if (agg.column != loaded) {
+                    agg.column.read(table, from, len, values);
+                    loaded = agg.column;
+                }
+                accumulate(agg.kind, key, values, len, acc[a]);
+            }
+        }
+        long[] count = new long[g];
+        for (int k = 0; k < g; k++) count[k] = (long) lanes[k] + lanes[g + k] + lanes[2 * g + k] + lanes[3 * g + k];
+        return new Result(bound, aggs.clone(), count, acc);
+    }
+
+    /**
+     * Sums for up to four slots, kept in registers. Accumulating into s[key[i]] instead makes
+     * every add wait for the previous store to the same slot, which is about 3x slower.
+     */
+    private static void sumFewGroups(int[] key, double[] values, int len, double[] s) {
+        int g = s.length;
+        double s0 = s[0], s1 = g > 1 ? s[1] : 0.0, s2 = g > 2 ? s[2] : 0.0, s3 = g > 3 ? s[3] : 0.0;
+        for (int i = 0; i < len; i++) {
+            double v = values[i];
+            int k = key[i];
+            if (k == 0) s0 += v;
+            else if (k == 1) s1 += v;
+            else if (k == 2) s2 += v;
+            else s3 += v;
+        }
+        s[0] = s0;
+        if (g > 1) s[1] = s1;
+        if (g > 2) s[2] = s2;
+        if (g > 3) s[3] = s3;
+    }
+
+    private static void accumulate(Kind kind, int[] key, double[] values, int len, double[] s) {
+        switch (kind) {
+            case SUM:
+            case AVG:
+                if (s.length <= 4) {
+                    sumFewGroups(key, values, len, s);
+                } else {
+                    for (int i = 0; i < len; i++) s[key[i]] += values[i];
+                }
+                break;
+            case MIN:
+                for (int i = 0; i < len; i++) { int k = key[i]; if (values[i] < s[k]) s[k] = values[i]; }
+                break;
+            default:
+                for (int i = 0; i < len; i++) { int k = key[i]; if (values[i] > s[k]) s[k] = values[i]; }
+                break;
+        }
+    }
+
+    /** Aggregates per non-empty group, in ascending order of the group labels (first dimension slowest). */
+    static final class Result {
+        final Bound[] dims;
+        final Agg[] aggs;
+        private final long[] count;
+        private final double[][] acc;
+        private final int[] present; // slots of the non-empty groups, ascending
+
+        private Result(Bound[] dims, Agg[] aggs, long[] count, double[][] acc) {
+            this.dims = dims;
+            this.aggs = aggs;
+            this.count = count;
+            this.acc = acc;
+            int k = 0;
+            int[] p = new int[count.length];
+            for (int g = 0; g < count.length; g++) if (count[g] > 0 && !excluded(g)) p[k++] = g;
+            this.present = Arrays.copyOf(p, k);
+        }
+
+        /** True when slot g holds rows that some dimension leaves out. */
+        private boolean excluded(int g) {
+            for (int d = dims.length - 1; d >= 0; d--) {
+                if (g % dims[d].radix == dims[d].cardinality()) return true;
+                g /= dims[d].radix;
+            }
+            return false;
+        }
+
+        /** Number of non-empty groups. */
+        int size() { return present.length; }
+
+        /** Labels of group i, one per dimension. */
+        String[] key(int i) {
+            String[] out = new String[dims.length];
+            int g = present[i];
+            for (int d = dims.length - 1; d >= 0; d--) {
+                out[d] = dims[d].labels[g % dims[d].radix];
+                g /= dims[d].radix;
+            }
+            return out;
+        }
+
+        /** Value of numeric dimension d (AGE, CHILDREN) for group i. */
+        int intKey(int i, int d) {
+            if (!dims[d].numeric) throw new IllegalArgumentException(dims[d].name + " is not numeric.");
+            int g = present[i];
+            for (int e = dims.length - 1; e > d; e--) g /= dims[e].radix;
+            return dims[d].base + g % dims[d].radix;
+        }
+
+        long count(int i) { return count[present[i]]; }
+
+        /** Aggregate a of group i; an average is sum / count. */
+        double value(int i, int a) { return valueOf(present[i], a); }
+
+        /** Row count of the group with these labels (0 when it is empty or unknown). */
+        long count(String... key) {
+            int g = code(key);
+            return g < 0 ? 0 : count[g];
+        }
+
+        /** Aggregate a of the group with these labels, NaN when the group is empty or unknown. */
+        double get(int a, String... key) {
+            int g = code(key);
+            return g < 0 || count[g] == 0 ? Double.NaN : valueOf(g, a);
+        }
+
+        private double valueOf(int g, int a) {
+            switch (aggs[a].kind) {
+                case COUNT: return count[g];
+                case AVG:   return acc[a][g] / count[g];
+                default:    return acc[a][g];
+            }
+        }
+
+        private int code(String... key) {
+            if (key.length != dims.length) throw new IllegalArgumentException("Expected " + dims.length + " key labels.");
+            int g = 0;
+            for (int d = 0; d < dims.length; d++) {
+                int c = Arrays.asList(dims[d].labels).indexOf(key[d]);
+                if (c < 0) return -1;
+                g = g * dims[d].radix + c;
+            }
+            return g;
+        }
+
+        @Override
+        public String toString() {
+            List<String> header = new ArrayList<>();
+            for (Bound b : dims) header.add(b.name);
+            for (Agg a : aggs) header.add(a.toString());
+            StringBuilder sb = new StringBuilder(String.join("\t", header));
+            for (int i = 0; i < size(); i++) {
+                sb.append('\n').append(String.join("\t", key(i)));
+                for (int a = 0; a < aggs.length; a++) {
+                    sb.append('\t');
+                    if (aggs[a].kind == Kind.COUNT) sb.append(count(i)); else sb.append(value(i, a));
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Incremental aggregation for CSV files that only grow by appending rows. The aggregator
+ * state is saved in <csv>.state together with the byte offset already consumed; the next run
+ * restores it and parses only the bytes after that offset. Rows are folded into the restored
+ * accumulators in file order, exactly as a full scan would, so the report is identical to a
+ * full recompute.
+ *
+ * Only complete lines are saved: a last line without a terminator may still be being
+ * written, so it is counted for the current report but parsed again next time. The state
+ * is discarded (and everything recomputed) when the consumed prefix no longer matches,
+ * checked by the CRC32C of its first and last PREFIX_CHECK bytes, or when it covers more
+ * rows than the N asked for.
+ */
+final class IncrementalReport {
+    static final int MAGIC = 0x494e4352; // "INCR"
+    static final int VERSION = 3; // 2: quantile sketch flag, 3: charges model flag
+    static final int PREFIX_CHECK = 64 * 1024;
+
+    static Path pathFor(String csvPath) {
+        return Paths.get(csvPath + ".state");
+    }
+
+    /** Returns the aggregation of the first N rows of csvPath, reusing and updating the saved state. */
+    static FeatureAggregator aggregate(String csvPath, long N, int bmiBinSize) throws IOException {
+        return aggregate(csvPath, N, bmiBinSize, false, false);
+    }
+
+    static FeatureAggregator aggregate(String csvPath, long N, int bmiBinSize, boolean quantiles, boolean mlr) throws IOException {
+        Path csv = Paths.get(csvPath), statePath = pathFor(csvPath);
+        try (FileChannel ch = FileChannel.open(csv, StandardOpenOption.READ)) {
+            long offset = 0;
+            FeatureAggregator agg = null;
+            State saved = readState(statePath, ch, bmiBinSize, quantiles, mlr);
+            boolean save = true;
+            if (saved != null && saved.agg.rows <= N) {
+                agg = saved.agg;
+                offset = saved.offset;
+            } else if (saved != null) {
+                save = false; // keep the state for the larger N; this run recomputes from scratch
+            }
+
+            InsuranceTable batch = new InsuranceTable(Driver.STREAM_BATCH_ROWS);
+            CsvRowParser parser = new CsvRowParser(Channels.newInputStream(ch.position(offset)), offset);
+            if (agg == null) {
+                agg = new FeatureAggregator(bmiBinSize, quantiles, mlr);
+                parser.skipHeader();
+            }
+            boolean more = true;
+            while (more && agg.rows < N) {
+                batch = batch.nextBatch(Driver.STREAM_BATCH_ROWS);
+                more = parser.fill(batch, (int) Math.min(Driver.STREAM_BATCH_ROWS, N - agg.rows), false);
+                agg.accept(batch);
+            }
+            long consumed = parser.position();
+            if (save && consumed > 0 && endsLine(ch, consumed)) writeState(statePath, ch, consumed, agg);
+
+            if (agg.rows < N) { // an unterminated last line counts for this report only
+                batch.clear();
+                parser.fill(batch, 1);
+                if (batch.size() > 0) {
+                    agg = agg.copy();
+                    agg.accept(batch);
+                }
+            }
+            return agg;
+        }
+    }
+
+    /** Saved aggregation of the complete lines in csv[0, offset). */
+    private static final class State {
+        final long offset;
+        final FeatureAggregator agg;
+
+        State(long offset, FeatureAggregator agg) {
+            this.offset = offset;
+            this.agg = agg;
+        }
+    }
+
+    private static State readState(Path statePath, FileChannel csv, int bmiBinSize, boolean quantiles, boolean mlr) {
+        if (!Files.isRegularFile(statePath)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(statePath)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long offset = in.readLong();
+            long check = in.readLong();
+            if (offset <= 0 || offset > csv.size() || check != prefixCheck(csv, offset)) return null;
+            FeatureAggregator agg = FeatureAggregator.readFrom(in);
+            return agg.bmiBinSize == bmiBinSize && agg.quantiles == quantiles && agg.mlr == mlr ? new State(offset, agg) : null;
+        } catch (IOException | RuntimeException e) {
+            return null; // unreadable or corrupt: recompute
+        }
+    }
+
+    private static void writeState(Path statePath, FileChannel csv, long offset, FeatureAggregator agg) {
+        Path tmp = statePath.resolveSibling(statePath.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(offset);
+                out.writeLong(prefixCheck(csv, offset));
+                agg.writeTo(out);
+            }
+            TableSnapshot.moveIntoPlace(tmp, statePath);
+        } catch (IOException e) {
+            System.err.println("Warning: couldn't write incremental state " + statePath + ": " + e.getMessage());
+        } finally {
+            try { Files.deleteIfExists(tmp); } catch (IOException ignored) { }
+        }
+    }
+
+    /** CRC32C of the first and last PREFIX_CHECK bytes of csv[0, offset). */
+    static long prefixCheck(FileChannel csv, long offset) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(read(csv, 0, (int) Math.min(offset, PREFIX_CHECK)));
+        if (offset > PREFIX_CHECK) {
+            long from = Math.max(PREFIX_CHECK, offset - PREFIX_CHECK);
+            crc.update(read(csv, from, (int) (offset - from)));
+        }
+        return crc.getValue();
+    }
+
+    private static boolean endsLine(FileChannel csv, long offset) throws IOException {
+        byte last = read(csv, offset - 1, 1).get(0);
+        return last == '\n' || last == '\r';
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0) { }
+        buf.flip();
+        return buf;
+    }
+}
@@ -0,0 +1,299 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Column-oriented storage for insurance rows. Numeric columns live in primitive
+ * arrays and sex/smoker/region are stored as 16-bit codes into a per-column dictionary,
+ * so a table of N rows is a handful of arrays instead of N objects and 3N Strings.
+ */
+final class InsuranceTable {
+
+    // ---------- Dictionary encoding for categorical columns ----------
+    static final class Dictionary {
+        static final int MAX_CODES = 1 << 16; // codes are stored as chars (unsigned 16 bits)
+
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] values = new String[8];
+        private byte[][] utf8 = new byte[8][];
+        private int[] slots = new int[16]; // UTF-8 hash -> code + 1 (0 = empty), at most half full
+        private int size;
+
+        /** Returns the code for value, assigning the next free code on first sight. */
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code != null) return code;
+            if (size == MAX_CODES) {
+                throw new IllegalStateException("More than " + MAX_CODES + " distinct categorical values.");
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                utf8 = Arrays.copyOf(utf8, size * 2);
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            values[size] = value;
+            utf8[size] = bytes;
+            codes.put(value, size);
+            if (2 * (size + 1) > slots.length) {
+                slots = new int[slots.length * 2];
+                for (int c = 0; c < size; c++) putSlot(c);
+            }
+            putSlot(size);
+            return size++;
+        }
+
+        private void putSlot(int code) {
+            int slot = hash(ByteBuffer.wrap(utf8[code]), 0, utf8[code].length);
+            while (slots[slot] != 0) slot = (slot + 1) & (slots.length - 1);
+            slots[slot] = code + 1;
+        }
+
+        /**
+         * Returns the code for the UTF-8 bytes buf[from, to) without creating a String, unless the
+         * value has never been seen before.
+         */
+        int encode(ByteBuffer buf, int from, int to) throws CharacterCodingException {
+            for (int slot = hash(buf, from, to); slots[slot] != 0; slot = (slot + 1) & (slots.length - 1)) {
+                int code = slots[slot] - 1;
+                if (sameBytes(utf8[code], buf, from, to)) return code;
+            }
+            byte[] bytes = new byte[to - from];
+            buf.get(from, bytes);
+            return encode(StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString());
+        }
+
+        private int hash(ByteBuffer buf, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) h = 31 * h + buf.get(i);
+            return (h ^ (h >>> 16)) & (slots.length - 1);
+        }
+
+        private static boolean sameBytes(byte[] a, ByteBuffer buf, int from, int to) {
+            if (a.length != to - from) return false;
+            for (int i = 0; i < a.length; i++) if (a[i] != buf.get(from + i)) return false;
+            return true;
+        }
+
+        String decode(int code) { return values[code]; }
+
+        int size() { return size; }
+
+        /** Evaluates test once per code, so hot loops can replace string checks with an array lookup. */
+        boolean[] flags(Predicate<String> test) {
+            boolean[] out = new boolean[size];
+            for (int c = 0; c < size; c++) out[c] = test.test(values[c]);
+            return out;
+        }
+
+        /** Lower-cased value per code (same folding as String.toLowerCase() on each row). */
+        String[] lowerCased() {
+            String[] out = new String[size];
+            for (int c = 0; c < size; c++) out[c] = values[c].toLowerCase();
+            return out;
+        }
+    }
+
+    final Dictionary sexDict = new Dictionary();
+    final Dictionary smokerDict = new Dictionary();
+    final Dictionary regionDict = new Dictionary();
+
+    int[] age;
+    char[] sex;
+    double[] bmi;
+    int[] children;
+    char[] smoker;
+    char[] region;
+    double[] charges;
+    private int size;
+    private long version; // 0: changed since the last version() call
+    private volatile RowFlags rowFlags;
+    private volatile BitmapIndex index;
+
+    InsuranceTable() { this(16); }
+
+    InsuranceTable(int initialCapacity) {
+        int cap = Math.max(initialCapacity, 1);
+        age = new int[cap];
+        sex = new char[cap];
+        bmi = new double[cap];
+        children = new int[cap];
+        smoker = new char[cap];
+        region = new char[cap];
+        charges = new double[cap];
+    }
+
+    static InsuranceTable fromRecords(List<Driver.InsuranceRecord> records) {
+        InsuranceTable t = new InsuranceTable(records.size());
+        for (Driver.InsuranceRecord r : records) t.add(r);
+        return t;
+    }
+
+    int size() { return size; }
+
+    /**
+     * Version of the current contents, for ResultCache keys: it changes whenever rows are
+     * added or dropped. Code that writes the columns directly goes through setRowCount first.
+     */
+    long version() {
+        if (version == 0) version = ResultCache.nextVersion();
+        return version;
+    }
+
+    /** Drops all rows but keeps the column arrays and dictionaries, so the table can be refilled. */
+    void clear() {
+        size = 0;
+        version = 0;
+    }
+
+    /**
+     * This table cleared for the next streaming batch of up to rows rows. Its dictionaries keep
+     * their codes across batches, so consumers can cache per-code lookups, until a batch could
+     * overflow one of them; then a new table with empty dictionaries is returned instead.
+     */
+    InsuranceTable nextBatch(int rows) {
+        int codes = Math.max(sexDict.size(), Math.max(smokerDict.size(), regionDict.size()));
+        if (codes > Dictionary.MAX_CODES - rows) return new InsuranceTable(rows);
+        clear();
+        return this;
+    }
+
+    /** Grows the columns to hold rows and sets the row count; the caller fills the columns directly. */
+    void setRowCount(int rows) {
+        ensureCapacity(rows);
+        size = rows;
+        version = 0;
+    }
+
+    /** Derived per-row flags as bitsets: bit i of a word array is row i (word i >>> 6). */
+    static final class RowFlags {
+        final long version;
+        final long[] smoker; // smoker is "yes" in any case
+        final long[] south;  // lower-cased region contains "south"
+        final long[] north;  // lower-cased region contains "north"
+
+        private RowFlags(InsuranceTable t) {
+            version = t.version();
+            smoker = bits(t.smoker, t.size, t.smokerDict.flags(s -> "yes".equalsIgnoreCase(s)));
+            String[] lower = t.regionDict.lowerCased();
+            boolean[] s = new boolean[lower.length], n = new boolean[lower.length];
+            for (int c = 0; c < lower.length; c++) {
+                s[c] = lower[c].contains("south");
+                n[c] = lower[c].contains("north");
+            }
+            south = bits(t.region, t.size, s);
+            north = bits(t.region, t.size, n);
+        }
+
+        private static long[] bits(char[] codes, int rows, boolean[] perCode) {
+            long[] lookup = new long[perCode.length];
+            for (int c = 0; c < perCode.length; c++) lookup[c] = perCode[c] ? 1 : 0;
+            long[] out = new long[(rows + 63) >>> 6];
+            for (int i = 0; i < rows; i++) out[i >>> 6] |= lookup[codes[i]] << i; // shift uses i mod 64
+            return out;
+        }
+
+        static int count(long[] bits) {
+            int n = 0;
+            for (long w : bits) n += Long.bitCount(w);
+            return n;
+        }
+    }
+
+    /** Row bitsets for the current contents, built once per version(). */
+    RowFlags rowFlags() {
+        RowFlags f = rowFlags;
+        if (f == null || f.version != version()) rowFlags = f = new RowFlags(this);
+        return f;
+    }
+
+    /** Bitmap index of the current contents, built once per version(). */
+    BitmapIndex index() {
+        BitmapIndex x = index;
+        if (x == null || x.version != version()) index = x = new BitmapIndex(this);
+        return x;
+    }
+
+    void add(Driver.InsuranceRecord r) {
+        add(r.age, r.sex, r.bmi, r.children, r.smoker, r.region, r.charges);
+    }
+
+    void add(int age, String sex, double bmi, int children, String smoker, String region, double charges) {
+        addEncoded(age, sexDict.encode(sex), bmi, children, smokerDict.encode(smoker), regionDict.encode(region), charges);
+    }
+
+    /** Appends a row whose categorical values are already codes of this table's dictionaries. */
+    void addEncoded(int age, int sexCode, double bmi, int children, int smokerCode, int regionCode, double charges) {
+        if (size == this.age.length) ensureCapacity(size + 1);
+        this.age[size] = age;
+        this.sex[size] = (char) sexCode;
+        this.bmi[size] = bmi;
+        this.children[size] = children;
+        this.smoker[size] = (char) smokerCode;
+        this.region[size] = (char) regionCode;
+        this.charges[size] = charges;
+        size++;
+        version = 0;
+    }
+
+    /**
+     * Appends count rows of src starting at from. Categorical codes are translated to this
+     * table's dictionaries in row order, so new values get codes in first-appearance order
+     * exactly as if the rows had been added one by one.
+     */
+    void appendFrom(InsuranceTable src, int from, int count) {
+        ensureCapacity(size + count);
+        System.arraycopy(src.age, from, age, size, count);
+        System.arraycopy(src.bmi, from, bmi, size, count);
+        System.arraycopy(src.children, from, children, size, count);
+        System.arraycopy(src.charges, from, charges, size, count);
+        remapCodes(src.sexDict, src.sex, sexDict, sex, from, count);
+        remapCodes(src.smokerDict, src.smoker, smokerDict, smoker, from, count);
+        remapCodes(src.regionDict, src.region, regionDict, region, from, count);
+        size += count;
+        version = 0;
+    }
+
+    private void remapCodes(Dictionary srcDict, char[] src, Dictionary dstDict, char[] dst, int from, int count) {
+        int[] map = new int[srcDict.size()];
+        Arrays.fill(map, -1);
+        for (int i = 0; i < count; i++) {
+            int c = src[from + i];
+            int m = map[c];
+            if (m < 0) m = map[c] = dstDict.encode(srcDict.decode(c));
+            dst[size + i] = (char) m;
+        }
+    }
+
+    private void ensureCapacity(int min) {
+        if (min <= age.length) return;
+        int cap = Math.max(min, age.length * 2);
+        age = Arrays.copyOf(age, cap);
+        sex = Arrays.copyOf(sex, cap);
+        bmi = Arrays.copyOf(bmi, cap);
+        children = Arrays.copyOf(children, cap);
+        smoker = Arrays.copyOf(smoker, cap);
+        region = Arrays.copyOf(region, cap);
+        charges = Arrays.copyOf(charges, cap);
+    }
+
+    int sexCode(int row) { return sex[row]; }
+    int smokerCode(int row) { return smoker[row]; }
+    int regionCode(int row) { return region[row]; }
+
+    Driver.InsuranceRecord record(int row) {
+        return new Driver.InsuranceRecord(age[row], sexDict.decode(sexCode(row)), bmi[row], children[row],
+                smokerDict.decode(smokerCode(row)), regionDict.decode(regionCode(row)), charges[row]);
+    }
+
+    List<Driver.InsuranceRecord> toRecords() {
+        List<Driver.InsuranceRecord> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) out.add(record(i));
+        return out;
+    }
+}
@@ -0,0 +1,236 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts per int key without boxing. Keys inside a dense window [base, base + counts.length)
+ * are counted in an int[]; the window grows to take in new keys as long as it spans at most
+ * MAX_DENSE_SPAN values, and keys that would stretch it further (outliers) go to a small
+ * open-addressing table instead. Iteration is in ascending key order over the keys with a
+ * non-zero count, like a TreeMap&lt;Integer, Integer&gt; built with merge(key, 1, Integer::sum).
+ *
+ * Histograms over disjoint parts of the data can be merged, so partial histograms built on
+ * several threads combine into the same result as one built sequentially.
+ */
+final class IntHistogram {
+    static final int MAX_DENSE_SPAN = 1 << 16;
+
+    /** Receives one (key, count) pair per non-empty key. */
+    interface BinConsumer {
+        void accept(int key, int count);
+    }
+
+    private int base;
+    private int[] counts = new int[0];
+    // Keys outside the dense window: open addressing with linear probing, count 0 = free slot
+    private int[] sparseKeys = new int[0], sparseCounts = new int[0];
+    private int sparseSize;
+    private int size; // keys with a non-zero count
+
+    void add(int key) { add(key, 1); }
+
+    void add(int key, int n) {
+        if (n == 0) return;
+        long off = (long) key - base;
+        if (off < 0 || off >= counts.length) {
+            if (!growTo(key)) {
+                addSparse(key, n);
+                return;
+            }
+            off = (long) key - base;
+        }
+        if (counts[(int) off] == 0) size++;
+        counts[(int) off] += n;
+    }
+
+    int get(int key) {
+        long off = (long) key - base;
+        if (off >= 0 && off < counts.length) return counts[(int) off];
+        int slot = findSparse(key);
+        return slot < 0 ? 0 : sparseCounts[slot];
+    }
+
+    /** Number of keys with a non-zero count. */
+    int size() { return size; }
+
+    boolean isEmpty() { return size == 0; }
+
+    long total() {
+        long n = 0;
+        for (int c : counts) n += c;
+        for (int c : sparseCounts) n += c;
+        return n;
+    }
+
+    /** Largest count, 0 when empty. */
+    int maxCount() {
+        int max = 0;
+        for (int c : counts) max = Math.max(max, c);
+        for (int c : sparseCounts) max = Math.max(max, c);
+        return max;
+    }
+
+    int minKey() { return nonEmptyKeys()[0]; }
+
+    int maxKey() {
+        int[] k = nonEmptyKeys();
+        return k[k.length - 1];
+    }
+
+    private int[] nonEmptyKeys() {
+        if (size == 0) throw new IllegalStateException("Empty histogram.");
+        return keys();
+    }
+
+    /** The non-empty keys, ascending. */
+    int[] keys() {
+        int[] out = new int[size];
+        int n = 0;
+        int[] sparse = sortedSparseKeys();
+        int s = 0;
+        while (s < sparse.length && sparse[s] < base) out[n++] = sparse[s++];
+        for (int i = 0; i < counts.length; i++) if (counts[i] != 0) out[n++] = base + i;
+        while (s < sparse.length) out[n++] = sparse[s++];
+        return out;
+    }
+
+    /** Calls action for every non-empty key in ascending order. */
+    void forEach(BinConsumer action) {
+        int[] sparse = sortedSparseKeys();
+        int s = 0;
+        for (; s < sparse.length && sparse[s] < base; s++) action.accept(sparse[s], get(sparse[s]));
+        for (int i = 0; i < counts.length; i++) if (counts[i] != 0) action.accept(base + i, counts[i]);
+        for (; s < sparse.length; s++) action.accept(sparse[s], get(sparse[s]));
+    }
+
+    /** Adds every count of other to this histogram. */
+    void merge(IntHistogram other) {
+        other.forEach(this::add);
+    }
+
+    /** The same counts as a sorted map. */
+    Map<Integer, Integer> toMap() {
+        Map<Integer, Integer> m = new TreeMap<>();
+        forEach(m::put);
+        return m;
+    }
+
+    // ---------- Dense window ----------
+
+    /** Widens the dense window to cover key; false when that would span more than MAX_DENSE_SPAN. */
+    private boolean growTo(int key) {
+        if (counts.length == 0) {
+            base = key;
+            counts = new int[16];
+            clampWindow();
+            return true;
+        }
+        long lo = Math.min(base, key), hi = Math.max((long) base + counts.length - 1, key);
+        if (hi - lo + 1 > MAX_DENSE_SPAN) return false;
+        int len = (int) Math.min(MAX_DENSE_SPAN, Math.max(hi - lo + 1, 2L * counts.length));
+        long newBase = key < base ? hi - len + 1 : lo; // leave the slack on the side that grew
+        int[] grown = new int[len];
+        int oldBase = base;
+        int[] old = counts;
+        base = (int) Math.max(Integer.MIN_VALUE, Math.min(newBase, (long) Integer.MAX_VALUE - len + 1));
+        counts = grown;
+        System.arraycopy(old, 0, grown, oldBase - base, old.length);
+        pullSparseIntoWindow();
+        return true;
+    }
+
+    /** Keeps base + counts.length - 1 within int range for a window that starts near Integer.MAX_VALUE. */
+    private void clampWindow() {
+        if ((long) base + counts.length - 1 > Integer.MAX_VALUE) base = Integer.MAX_VALUE - counts.length + 1;
+    }
+
+    private void pullSparseIntoWindow() {
+        if (sparseSize == 0) return;
+        int[] keys = sparseKeys, cs = sparseCounts;
+        boolean moved = false;
+        for (int i = 0; i < keys.length; i++) {
+            long off = (long) keys[i] - base;
+            if (cs[i] != 0 && off >= 0 && off < counts.length) {
+                counts[(int) off] = cs[i];
+                moved = true;
+            }
+        }
+        if (!moved) return;
+        sparseKeys = new int[0];
+        sparseCounts = new int[0];
+        sparseSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long off = (long) keys[i] - base;
+            if (cs[i] != 0 && (off < 0 || off >= counts.length)) insertSparse(keys[i], cs[i]);
+        }
+    }
+
+    // ---------- Sparse table ----------
+
+    private void addSparse(int key, int n) {
+        int slot = findSparse(key);
+        if (slot >= 0) {
+            sparseCounts[slot] += n;
+            return;
+        }
+        size++;
+        insertSparse(key, n);
+    }
+
+    private void insertSparse(int key, int n) {
+        if (2 * (sparseSize + 1) > sparseKeys.length) rehash(Math.max(8, 2 * sparseKeys.length));
+        int mask = sparseKeys.length - 1, slot = hash(key) & mask;
+        while (sparseCounts[slot] != 0) slot = (slot + 1) & mask;
+        sparseKeys[slot] = key;
+        sparseCounts[slot] = n;
+        sparseSize++;
+    }
+
+    private int findSparse(int key) {
+        if (sparseSize == 0) return -1;
+        int mask = sparseKeys.length - 1;
+        for (int slot = hash(key) & mask; sparseCounts[slot] != 0; slot = (slot + 1) & mask) {
+            if (sparseKeys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        int[] keys = sparseKeys, cs = sparseCounts;
+        sparseKeys = new int[capacity];
+        sparseCounts = new int[capacity];
+        sparseSize = 0;
+        for (int i = 0; i < keys.length; i++) if (cs[i] != 0) insertSparse(keys[i], cs[i]);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int[] sortedSparseKeys() {
+        int[] out = new int[sparseSize];
+        int n = 0;
+        for (int i = 0; i < sparseKeys.length; i++) if (sparseCounts[i] != 0) out[n++] = sparseKeys[i];
+        Arrays.sort(out);
+        return out;
+    }
+
+    // ---------- Object ----------
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IntHistogram && toMap().equals(((IntHistogram) o).toMap());
+    }
+
+    @Override
+    public int hashCode() { return toMap().hashCode(); }
+
+    /** Same format as the equivalent TreeMap: {key=count, ...}. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, c) -> sb.append(sb.length() > 1 ? ", " : "").append(k).append('=').append(c));
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,157 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Timing of the report phases (loading, the aggregation pass, each feature's computation and
+ * printing). A phase is a span on one thread. It records its rows, its wall time and the
+ * bytes that thread allocated. Every phase is committed as a JDK Flight Recorder event
+ * (insurance.Phase), so a recording (-XX:StartFlightRecording) shows where a run went per
+ * thread. With --metrics, Driver also prints a per-phase summary at the end of the report.
+ *
+ * When neither is on, begin returns a shared no-op phase after two flag checks, so the
+ * instrumentation costs nothing measurable. The event class is not even touched unless Flight
+ * Recorder is running, since initializing JFR costs about 0.25 s of startup. Phases are coarse
+ * (per feature, per load chunk, per fork/join leaf), never per row.
+ */
+final class Metrics {
+
+    @Name("insurance.Phase")
+    @Label("Report Phase")
+    @Category({"Insurance", "Report"})
+    @Description("A load, aggregation or feature phase of the insurance report")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Phase") String phase;
+        @Label("Rows") long rows;
+        @Label("Allocated") @DataAmount long allocated;
+    }
+
+    private static volatile boolean summary; // --metrics
+    private static final Map<String, Totals> totals = new LinkedHashMap<>(); // by phase name, first use order
+
+    /** Per-thread allocation counter, loaded on first use (null when the JVM has none). */
+    private static final class Allocation {
+        static final com.sun.management.ThreadMXBean THREADS = counter();
+
+        private static com.sun.management.ThreadMXBean counter() {
+            ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            if (!(mx instanceof com.sun.management.ThreadMXBean)) return null;
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) mx;
+            return sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled() ? sun : null;
+        }
+    }
+
+    /** Turns on the --metrics summary (JFR events depend only on the recording settings). */
+    static void enableSummary() { summary = true; }
+
+    static boolean summaryEnabled() { return summary; }
+
+    /** Starts a phase over rows rows (0 when not known yet; see Phase.end(long)). */
+    static Phase begin(String name, long rows) {
+        boolean recording = FlightRecorder.isInitialized();
+        if (!summary && !recording) return Phase.OFF;
+        return new Phase(name, rows, recording);
+    }
+
+    static Phase begin(String name) { return begin(name, 0); }
+
+    /** A running phase; end it on the thread that began it. */
+    static final class Phase {
+        static final Phase OFF = new Phase();
+
+        private final String name;
+        private final long rows;
+        private final PhaseEvent event;
+        private final long bytes0, t0;
+
+        private Phase() { // OFF
+            name = null;
+            rows = 0;
+            event = null;
+            bytes0 = t0 = 0;
+        }
+
+        private Phase(String name, long rows, boolean recording) {
+            this.name = name;
+            this.rows = rows;
+            event = recording ? new PhaseEvent() : null;
+            if (event != null) event.begin();
+            bytes0 = allocatedBytes();
+            t0 = System.nanoTime();
+        }
+
+        void end() { end(rows); }
+
+        /** Ends the phase, recording rows processed (for phases that only know it at the end). */
+        void end(long rows) {
+            if (this == OFF) return;
+            long nanos = System.nanoTime() - t0;
+            long bytes = bytes0 < 0 ? -1 : allocatedBytes() - bytes0;
+            if (event != null) event.end();
+            if (event != null && event.shouldCommit()) {
+                event.phase = name;
+                event.rows = rows;
+                event.allocated = bytes;
+                event.commit();
+            }
+            if (summary) record(name, rows, nanos, bytes);
+        }
+
+        /** Ends this phase and begins the next one over the same rows. */
+        Phase next(String name) {
+            end();
+            return begin(name, rows);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return Allocation.THREADS == null ? -1 : Allocation.THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    // ---------- Summary (--metrics) ----------
+
+    private static final class Totals {
+        long calls, rows, nanos, bytes;
+        boolean bytesKnown = true;
+    }
+
+    private static synchronized void record(String name, long rows, long nanos, long bytes) {
+        Totals t = totals.computeIfAbsent(name, k -> new Totals());
+        t.calls++;
+        t.rows += rows;
+        t.nanos += nanos;
+        if (bytes < 0) t.bytesKnown = false;
+        else t.bytes += bytes;
+    }
+
+    static synchronized void reset() { totals.clear(); }
+
+    /**
+     * One line per phase: calls, rows, total time and allocated bytes, then rows/s, ns/row and
+     * bytes/row for phases that scan rows. Phases run on pool threads (load chunks, fork/join
+     * leaves) add up the time of every call, so they can exceed the wall time of the run.
+     */
+    static synchronized void printSummary() {
+        System.out.println("\n=== Metrics: time and allocation per phase (allocations of the thread running it) ===");
+        System.out.printf("%-28s %6s %12s %10s %14s %14s %10s %10s%n", "phase", "calls", "rows", "ms", "bytes", "rows/s", "ns/row", "bytes/row");
+        for (Map.Entry<String, Totals> e : totals.entrySet()) {
+            Totals t = e.getValue();
+            String bytes = t.bytesKnown ? Long.toString(t.bytes) : "n/a";
+            String perRow = t.rows == 0 ? String.format("%14s %10s %10s", "-", "-", "-")
+                    : String.format(Locale.US, "%14.0f %10.1f %10s", t.rows * 1e9 / t.nanos, (double) t.nanos / t.rows,
+                                    t.bytesKnown ? String.format(Locale.US, "%.1f", (double) t.bytes / t.rows) : "n/a");
+            System.out.printf(Locale.US, "%-28s %6d %12d %10.2f %14s %s%n", e.getKey(), t.calls, t.rows, t.nanos / 1e6, bytes, perRow);
+        }
+    }
+}
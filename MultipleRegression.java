@@ -0,0 +1,222 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming least squares for y = b0 + b1*x1 + ... + bp*xp. Like OnlineRegression, rows are
+ * folded into running means and a centered co-moment matrix (the X'X and X'y of the centered
+ * design, packed upper triangle), and two partial results merge with the pairwise formulas of
+ * Chan et al. So a model over any number of rows costs one scan and O(p^2) memory, and
+ * fork/join ranges or incremental runs combine exactly.
+ *
+ * fit() solves the p x p normal equations with a Cholesky factorization; the intercept follows
+ * from the means. Predictors with no variance (e.g. a region absent from the data) are left
+ * out of the solve and get a coefficient of 0.
+ */
+final class MultipleRegression {
+    final String[] predictors;
+    private final int p;
+    long n;
+    private final double[] mean;    // p predictor means, then the mean of y
+    private final double[] comoment; // packed upper triangle of the (p+1) x (p+1) centered sums
+    private final double[] delta, after; // scratch for add
+
+    MultipleRegression(String... predictors) {
+        this.predictors = predictors.clone();
+        p = predictors.length;
+        mean = new double[p + 1];
+        comoment = new double[(p + 1) * (p + 2) / 2];
+        delta = new double[p + 1];
+        after = new double[p + 1];
+    }
+
+    /** Adds one row; x holds the predictors in constructor order. Rows with a NaN are skipped. */
+    void add(double[] x, double y) {
+        if (x.length != p) throw new IllegalArgumentException("Expected " + p + " predictors, got " + x.length);
+        if (Double.isNaN(y)) return;
+        for (int i = 0; i < p; i++) if (Double.isNaN(x[i])) return;
+        n++;
+        double[] d = delta, e = after, m = mean, c = comoment;
+        double inv = 1.0 / n;
+        for (int i = 0; i <= p; i++) {
+            d[i] = (i < p ? x[i] : y) - m[i]; // z - old mean
+            double step = d[i] * inv;
+            m[i] += step;
+            e[i] = d[i] - step;               // z - new mean
+        }
+        for (int i = 0, k = 0; i <= p; i++) {
+            double di = d[i];
+            for (int j = i; j <= p; j++) c[k++] += di * e[j];
+        }
+    }
+
+    /** Folds other (e.g. fitted over a later range of rows) into this one; other is unchanged. */
+    void merge(MultipleRegression o) {
+        if (o.p != p) throw new IllegalArgumentException("Predictor counts differ: " + p + " vs " + o.p);
+        merge(o.n, o.mean, o.comoment);
+    }
+
+    /**
+     * Folds in other, a model over this model's first other.p predictors, fitted on rows where
+     * the remaining predictors all equal fixed (e.g. one level of a categorical predictor). The
+     * fixed columns have no variance within other, so its state widens exactly.
+     */
+    void mergeWithConstants(MultipleRegression o, double... fixed) {
+        if (o.p + fixed.length != p) throw new IllegalArgumentException("Predictor counts differ: " + p + " vs " + o.p + " + " + fixed.length);
+        double[] m = new double[p + 1];
+        System.arraycopy(o.mean, 0, m, 0, o.p);
+        System.arraycopy(fixed, 0, m, o.p, fixed.length);
+        m[p] = o.mean[o.p];
+        double[] c = new double[comoment.length];
+        for (int i = 0; i <= p; i++) {
+            int oi = i < o.p ? i : i == p ? o.p : -1; // -1: a fixed column
+            for (int j = i; j <= p; j++) {
+                int oj = j < o.p ? j : j == p ? o.p : -1;
+                if (oi >= 0 && oj >= 0) c[at(i, j)] = o.comoment[o.at(oi, oj)];
+            }
+        }
+        merge(o.n, m, c);
+    }
+
+    private void merge(long on, double[] omean, double[] ocomoment) {
+        if (on == 0) return;
+        if (n == 0) {
+            n = on;
+            System.arraycopy(omean, 0, mean, 0, mean.length);
+            System.arraycopy(ocomoment, 0, comoment, 0, comoment.length);
+            return;
+        }
+        long total = n + on;
+        double w = (double) n * on / total;
+        for (int i = 0; i <= p; i++) delta[i] = omean[i] - mean[i];
+        for (int i = 0, k = 0; i <= p; i++) {
+            for (int j = i; j <= p; j++, k++) comoment[k] += ocomoment[k] + delta[i] * delta[j] * w;
+        }
+        for (int i = 0; i <= p; i++) mean[i] += delta[i] * on / total;
+        n = total;
+    }
+
+    private int at(int i, int j) { // packed index of (i, j), i <= j
+        return i * (p + 1) - i * (i - 1) / 2 + (j - i);
+    }
+
+    /** Fitted model. */
+    static final class Fit {
+        final String[] predictors;
+        final long n;
+        final double intercept, interceptError;
+        final double[] coefficients, standardErrors; // NaN error for a predictor left out
+        final double rSquared, residualSd;
+
+        private Fit(String[] predictors, long n, double intercept, double interceptError,
+                    double[] coefficients, double[] standardErrors, double rSquared, double residualSd) {
+            this.predictors = predictors;
+            this.n = n;
+            this.intercept = intercept;
+            this.interceptError = interceptError;
+            this.coefficients = coefficients;
+            this.standardErrors = standardErrors;
+            this.rSquared = rSquared;
+            this.residualSd = residualSd;
+        }
+
+        double predict(double[] x) {
+            double y = intercept;
+            for (int i = 0; i < coefficients.length; i++) y += coefficients[i] * x[i];
+            return y;
+        }
+    }
+
+    /**
+     * Least-squares fit, or null when there are not more rows than fitted terms or the
+     * predictors that vary are collinear.
+     */
+    Fit fit() {
+        int[] active = new int[p];
+        int q = 0;
+        for (int i = 0; i < p; i++) if (comoment[at(i, i)] > 0) active[q++] = i;
+        if (n <= q + 1) return null;
+
+        // Cholesky factor L (lower, row-major q x q) of the active block of the co-moment matrix
+        double[] l = new double[q * q];
+        for (int i = 0; i < q; i++) {
+            for (int j = 0; j <= i; j++) {
+                double s = comoment[at(active[j], active[i])];
+                for (int k = 0; k < j; k++) s -= l[i * q + k] * l[j * q + k];
+                if (i == j) {
+                    // a pivot that has lost almost all of its variance: collinear predictors
+                    if (!(s > 1e-10 * comoment[at(active[i], active[i])])) return null;
+                    l[i * q + i] = Math.sqrt(s);
+                } else {
+                    l[i * q + j] = s / l[j * q + j];
+                }
+            }
+        }
+
+        double[] xy = new double[q];
+        for (int i = 0; i < q; i++) xy[i] = comoment[at(active[i], p)];
+        double[] b = solve(l, q, xy);
+
+        double syy = comoment[at(p, p)];
+        double sse = syy;
+        for (int i = 0; i < q; i++) sse -= b[i] * xy[i];
+        sse = Math.max(sse, 0.0);
+        long dof = n - q - 1;
+        double sigma2 = sse / dof;
+
+        double[] coefficients = new double[p], errors = new double[p];
+        Arrays.fill(errors, Double.NaN);
+        double[] meanX = new double[q];
+        double intercept = mean[p];
+        for (int i = 0; i < q; i++) {
+            coefficients[active[i]] = b[i];
+            meanX[i] = mean[active[i]];
+            intercept -= b[i] * meanX[i];
+            double[] unit = new double[q];
+            unit[i] = 1;
+            errors[active[i]] = Math.sqrt(sigma2 * solve(l, q, unit)[i]); // diagonal of the inverse
+        }
+        double[] u = solve(l, q, meanX);
+        double mu = 0;
+        for (int i = 0; i < q; i++) mu += meanX[i] * u[i];
+        double interceptError = Math.sqrt(sigma2 * (1.0 / n + mu));
+        double rSquared = syy == 0 ? 0.0 : 1 - sse / syy;
+        return new Fit(predictors, n, intercept, interceptError, coefficients, errors, rSquared, Math.sqrt(sigma2));
+    }
+
+    /** Solves L L^T x = rhs by forward and back substitution. */
+    private static double[] solve(double[] l, int q, double[] rhs) {
+        double[] y = new double[q];
+        for (int i = 0; i < q; i++) {
+            double s = rhs[i];
+            for (int k = 0; k < i; k++) s -= l[i * q + k] * y[k];
+            y[i] = s / l[i * q + i];
+        }
+        double[] x = new double[q];
+        for (int i = q - 1; i >= 0; i--) {
+            double s = y[i];
+            for (int k = i + 1; k < q; k++) s -= l[k * q + i] * x[k];
+            x[i] = s / l[i * q + i];
+        }
+        return x;
+    }
+
+    // ---------- Persistence ----------
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(p);
+        out.writeLong(n);
+        for (double v : mean) out.writeDouble(v);
+        for (double v : comoment) out.writeDouble(v);
+    }
+
+    /** Replaces this model's state with one written by writeTo from a model with as many predictors. */
+    void readFrom(DataInput in) throws IOException {
+        int written = in.readInt();
+        if (written != p) throw new IOException("Predictor counts differ: " + p + " vs " + written);
+        n = in.readLong();
+        for (int i = 0; i < mean.length; i++) mean[i] = in.readDouble();
+        for (int i = 0; i < comoment.length; i++) comoment[i] = in.readDouble();
+    }
+}
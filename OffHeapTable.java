@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * The insurance columns outside the Java heap, for datasets too large for -Xmx. Rows are
+ * split into chunks of CHUNK_ROWS; per chunk every column is one little-endian ByteBuffer
+ * (bmi and charges f64, age and children i32, sex/smoker/region u16 codes), in the layout of the
+ * TableSnapshot columns. The buffers are either direct (parse) or slices of a memory-mapped
+ * snapshot file (TableSnapshot.map). Either way the rows never touch the heap, so the GC
+ * neither copies nor scans them; FeatureAggregator reads the buffers in place.
+ *
+ * Direct buffers count against -XX:MaxDirectMemorySize, which defaults to -Xmx. A mapped
+ * snapshot counts against nothing: the OS pages it in and out of the page cache, so it may
+ * even exceed physical memory.
+ */
+final class OffHeapTable {
+    static final int CHUNK_SHIFT = 22; // 4M rows, 120 MB per chunk
+    static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_ROWS - 1;
+    private static final int FIRST_CAPACITY = 1 << 16; // rows of the first direct chunk before it grows
+
+    final InsuranceTable.Dictionary sexDict, smokerDict, regionDict;
+    // Per chunk; a column's chunk c holds rows c * CHUNK_ROWS onwards
+    ByteBuffer[] bmi, charges, age, sex, children, smoker, region;
+    private int size;
+    private long capacity; // rows the allocated chunks hold
+
+    OffHeapTable(InsuranceTable.Dictionary sexDict, InsuranceTable.Dictionary smokerDict, InsuranceTable.Dictionary regionDict) {
+        this.sexDict = sexDict;
+        this.smokerDict = smokerDict;
+        this.regionDict = regionDict;
+        bmi = charges = age = sex = children = smoker = region = new ByteBuffer[0];
+    }
+
+    /** A table over already filled chunks (e.g. mapped from a file) of rows rows. */
+    OffHeapTable(InsuranceTable.Dictionary sexDict, InsuranceTable.Dictionary smokerDict, InsuranceTable.Dictionary regionDict,
+                 ByteBuffer[] bmi, ByteBuffer[] charges, ByteBuffer[] age, ByteBuffer[] sex,
+                 ByteBuffer[] children, ByteBuffer[] smoker, ByteBuffer[] region, int rows) {
+        this(sexDict, smokerDict, regionDict);
+        this.bmi = bmi; this.charges = charges; this.age = age; this.sex = sex;
+        this.children = children; this.smoker = smoker; this.region = region;
+        capacity = size = rows;
+    }
+
+    int size() { return size; }
+
+    /** Rows in chunk c. */
+    int chunkRows(int c) { return Math.min(CHUNK_ROWS, size - (c << CHUNK_SHIFT)); }
+
+    int chunkCount() { return (size + CHUNK_MASK) >>> CHUNK_SHIFT; }
+
+    /**
+     * Parses the first N rows of csvPath into direct buffers, a batch at a time, so the heap
+     * only ever holds one batch of STREAM_BATCH_ROWS rows.
+     */
+    static OffHeapTable parse(String csvPath, int N) throws IOException {
+        InsuranceTable batch = new InsuranceTable(Driver.STREAM_BATCH_ROWS);
+        // The batch's dictionaries keep their codes across clear(), so the rows' codes stay valid
+        OffHeapTable t = new OffHeapTable(batch.sexDict, batch.smokerDict, batch.regionDict);
+        try (CsvRowParser parser = new CsvRowParser(Files.newInputStream(Paths.get(csvPath)))) {
+            parser.skipHeader();
+            boolean more = true;
+            while (more && t.size < N) {
+                batch.clear();
+                more = parser.fill(batch, Math.min(Driver.STREAM_BATCH_ROWS, N - t.size));
+                t.append(batch);
+            }
+        }
+        return t;
+    }
+
+    /** Appends the rows of batch, whose codes must be codes of this table's dictionaries. */
+    void append(InsuranceTable batch) {
+        int n = batch.size();
+        if (n > Integer.MAX_VALUE - size) throw new IllegalStateException("More than " + Integer.MAX_VALUE + " rows.");
+        for (int off = 0; off < n; ) {
+            int row = size, c = row >>> CHUNK_SHIFT, i = row & CHUNK_MASK;
+            ensureCapacity(row + 1);
+            int len = (int) Math.min(n - off, Math.min(CHUNK_ROWS, capacity - ((long) c << CHUNK_SHIFT)) - i);
+            at(bmi[c], i, 8).asDoubleBuffer().put(batch.bmi, off, len);
+            at(charges[c], i, 8).asDoubleBuffer().put(batch.charges, off, len);
+            at(age[c], i, 4).asIntBuffer().put(batch.age, off, len);
+            at(sex[c], i, 2).asCharBuffer().put(batch.sex, off, len);
+            at(children[c], i, 4).asIntBuffer().put(batch.children, off, len);
+            at(smoker[c], i, 2).asCharBuffer().put(batch.smoker, off, len);
+            at(region[c], i, 2).asCharBuffer().put(batch.region, off, len);
+            size += len;
+            off += len;
+        }
+    }
+
+    /** Rows from, from + 1, ... from + count - 1 copied into a new heap table (e.g. to print them). */
+    InsuranceTable slice(int from, int count) {
+        InsuranceTable out = new InsuranceTable(count);
+        for (int c = 0; c < sexDict.size(); c++) out.sexDict.encode(sexDict.decode(c));
+        for (int c = 0; c < smokerDict.size(); c++) out.smokerDict.encode(smokerDict.decode(c));
+        for (int c = 0; c < regionDict.size(); c++) out.regionDict.encode(regionDict.decode(c));
+        out.setRowCount(count);
+        for (int off = 0; off < count; ) {
+            int row = from + off, c = row >>> CHUNK_SHIFT, i = row & CHUNK_MASK;
+            int len = Math.min(count - off, CHUNK_ROWS - i);
+            at(bmi[c], i, 8).asDoubleBuffer().get(out.bmi, off, len);
+            at(charges[c], i, 8).asDoubleBuffer().get(out.charges, off, len);
+            at(age[c], i, 4).asIntBuffer().get(out.age, off, len);
+            at(sex[c], i, 2).asCharBuffer().get(out.sex, off, len);
+            at(children[c], i, 4).asIntBuffer().get(out.children, off, len);
+            at(smoker[c], i, 2).asCharBuffer().get(out.smoker, off, len);
+            at(region[c], i, 2).asCharBuffer().get(out.region, off, len);
+            off += len;
+        }
+        return out;
+    }
+
+    /** A little-endian view of column chunk buf starting at row i of width-byte values. */
+    static ByteBuffer at(ByteBuffer buf, int i, int width) {
+        ByteBuffer view = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN); // duplicate() resets the order
+        view.position(i * width);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Adds chunks until rows fit. Only the first chunk starts small and doubles up to
+     * CHUNK_ROWS, so a small file doesn't take a whole chunk of direct memory.
+     */
+    private void ensureCapacity(int rows) {
+        while (capacity < rows) {
+            int chunks = bmi.length;
+            int last = chunks == 0 ? 0 : (int) (capacity - ((long) (chunks - 1) << CHUNK_SHIFT));
+            if (chunks == 0 || last == CHUNK_ROWS) { // a new chunk
+                int first = chunks == 0 ? FIRST_CAPACITY : CHUNK_ROWS;
+                resizeChunk(chunks, first);
+                capacity += first;
+            } else {
+                int grown = Math.min(CHUNK_ROWS, 2 * last);
+                resizeChunk(chunks - 1, grown);
+                capacity += grown - last;
+            }
+        }
+    }
+
+    private void resizeChunk(int c, int rows) {
+        if (c == bmi.length) {
+            int n = c + 1;
+            bmi = Arrays.copyOf(bmi, n); charges = Arrays.copyOf(charges, n);
+            age = Arrays.copyOf(age, n); sex = Arrays.copyOf(sex, n);
+            children = Arrays.copyOf(children, n); smoker = Arrays.copyOf(smoker, n);
+            region = Arrays.copyOf(region, n);
+        }
+        bmi[c] = resized(bmi[c], rows * 8);
+        charges[c] = resized(charges[c], rows * 8);
+        age[c] = resized(age[c], rows * 4);
+        sex[c] = resized(sex[c], rows * 2);
+        children[c] = resized(children[c], rows * 4);
+        smoker[c] = resized(smoker[c], rows * 2);
+        region[c] = resized(region[c], rows * 2);
+    }
+
+    private static ByteBuffer resized(ByteBuffer old, int bytes) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (old != null) buf.put(old.duplicate().clear()).clear();
+        return buf;
+    }
+}
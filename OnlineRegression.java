@@ -0,0 +1,69 @@
+/**
+ * Streaming co-moments of (x, y) for a simple linear regression y = a + b*x.
+ * Rows are folded in with Welford-style updates of the means and centered sums, and two
+ * partial results are combined with the pairwise formulas of Chan et al., so ranges of
+ * the data can be accumulated independently and merged. Unlike raw sums of x^2, y^2 and xy,
+ * the centered sums do not cancel catastrophically when y (charges) is large and n is in
+ * the millions. Features 20, 21 and 22 are all computed from this accumulator.
+ */
+final class OnlineRegression {
+    long n;
+    double meanX, meanY;
+    double sxx, syy, sxy; // centered sums of squares and cross-products
+
+    void add(double x, double y) {
+        n++;
+        double dx = x - meanX;
+        double dy = y - meanY;
+        meanX += dx / n;
+        meanY += dy / n;
+        sxx += dx * (x - meanX);
+        syy += dy * (y - meanY);
+        sxy += dx * (y - meanY);
+    }
+
+    /** Undoes add(x, y) for a row previously added (e.g. a sliding window). */
+    void remove(double x, double y) {
+        if (n == 0) throw new IllegalStateException("remove from an empty regression");
+        if (n == 1) {
+            n = 0; meanX = meanY = sxx = syy = sxy = 0.0;
+            return;
+        }
+        long m = n - 1;
+        double prevMeanX = meanX + (meanX - x) / m;
+        double prevMeanY = meanY + (meanY - y) / m;
+        sxx -= (x - prevMeanX) * (x - meanX);
+        syy -= (y - prevMeanY) * (y - meanY);
+        sxy -= (x - prevMeanX) * (y - meanY);
+        meanX = prevMeanX;
+        meanY = prevMeanY;
+        n = m;
+    }
+
+    void merge(OnlineRegression o) {
+        if (o.n == 0) return;
+        if (n == 0) {
+            n = o.n; meanX = o.meanX; meanY = o.meanY; sxx = o.sxx; syy = o.syy; sxy = o.sxy;
+            return;
+        }
+        long total = n + o.n;
+        double dx = o.meanX - meanX, dy = o.meanY - meanY;
+        double w = (double) n * o.n / total;
+        sxx += o.sxx + dx * dx * w;
+        syy += o.syy + dy * dy * w;
+        sxy += o.sxy + dx * dy * w;
+        meanX += dx * o.n / total;
+        meanY += dy * o.n / total;
+        n = total;
+    }
+
+    double slope() { return sxy / sxx; }
+
+    double intercept() { return meanY - slope() * meanX; }
+
+    /** Pearson r, or 0 when either variable has no variance. */
+    double r() {
+        double den = Math.sqrt(sxx * syy);
+        return den == 0 ? 0.0 : sxy / den;
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Multi-threaded CSV loading: the file is memory-mapped in newline-aligned chunks, each
+ * chunk is parsed on its own thread into a private InsuranceTable, and the chunk tables are
+ * appended to the result in file order. Rows, their order and the first-N cut-off are the
+ * same as with Driver.loadTable.
+ */
+final class ParallelCsvLoader {
+    static final long CHUNK_BYTES = 32L << 20;
+
+    static InsuranceTable load(String csvPath, int N, int threads) throws IOException {
+        return load(csvPath, N, threads, CHUNK_BYTES);
+    }
+
+    static InsuranceTable load(String csvPath, int N, int threads, long chunkBytes) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(csvPath), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) throw new IOException("Empty CSV (no header).");
+            long next = lineEndAfter(ch, 0, size); // skip header
+
+            InsuranceTable out = new InsuranceTable();
+            ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "csv-chunk");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                // Keep a bounded window of chunks in flight and consume them in file order,
+                // so a small N only ever parses the first few chunks.
+                ArrayDeque<Future<InsuranceTable>> inFlight = new ArrayDeque<>();
+                while (out.size() < N && (next < size || !inFlight.isEmpty())) {
+                    while (next < size && inFlight.size() < 2 * threads) {
+                        long start = next, end = lineEndAfter(ch, Math.min(size, next + chunkBytes), size);
+                        inFlight.add(pool.submit(() -> parseChunk(ch, start, end, N)));
+                        next = end;
+                    }
+                    InsuranceTable part = await(inFlight.poll());
+                    out.appendFrom(part, 0, Math.min(part.size(), N - out.size()));
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            return out;
+        }
+    }
+
+    private static InsuranceTable parseChunk(FileChannel ch, long start, long end, int N) throws IOException {
+        long len = end - start;
+        if (len > Integer.MAX_VALUE) throw new IOException("CSV line longer than 2 GB at byte " + start);
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+        Metrics.Phase phase = Metrics.begin("load (parallel chunk)");
+        InsuranceTable t = new InsuranceTable((int) Math.min(N, len / 32 + 16));
+        new CsvRowParser().parseLines(buf, 0, (int) len, true, t, N);
+        phase.end(t.size());
+        return t;
+    }
+
+    /** Position just after the first line terminator at or after pos, or size if there is none. */
+    private static long lineEndAfter(FileChannel ch, long pos, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(64 * 1024);
+        while (pos < size) {
+            probe.clear();
+            int n = ch.read(probe, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                byte b = probe.get(i);
+                if (b == '\n' || b == '\r') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static InsuranceTable await(Future<InsuranceTable> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading CSV.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+}
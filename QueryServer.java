@@ -0,0 +1,497 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Local HTTP/JSON service over a dataset loaded once (--serve). The table and its
+ * FeatureAggregator are built at startup and never change afterwards, so requests only read
+ * shared state: fixed answers come straight from the aggregator and parameterized ones
+ * (histogram bin sizes, predictions) are computed on first request. Response bodies are
+ * memoized in Driver.cache by path and query parameters, so a repeated query is a lookup.
+ *
+ * Requests run on virtual threads when the JDK has them (21+); on older JDKs they run on a
+ * fixed pool of platform threads, which suits the short, non-blocking handlers here.
+ */
+final class QueryServer {
+    static final int DEFAULT_PORT = 8080;
+    static final int MAX_RECORDS_PER_PAGE = 10_000;
+    /** Routes answered fresh every time: record pages are large and cheap to slice, /cache is live. */
+    static final Set<String> UNCACHED = Set.of("/records", "/cache");
+
+    static {
+        // Headers and body go out in separate writes; with Nagle's algorithm on, each small
+        // response then waits for the client's delayed ACK (~40 ms). Read once when the JDK
+        // server's configuration class loads, so it must be set before the first server.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final InsuranceTable table;
+    private final FeatureAggregator agg;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Function<Map<String, String>, String>> routes = new LinkedHashMap<>();
+
+    QueryServer(InsuranceTable table, FeatureAggregator agg, int port) throws IOException {
+        this.table = table;
+        this.agg = agg;
+        routes.put("/", q -> index());
+        routes.put("/stats", q -> stats());
+        routes.put("/histogram/age", q -> ageHistogram(intParam(q, "bin", 1)));
+        routes.put("/histogram/bmi", q -> bmiHistogram(intParam(q, "bin", agg.bmiBinSize)));
+        routes.put("/histogram/children", q -> counts(agg.childrenCounts, "children"));
+        routes.put("/regions", q -> regions());
+        routes.put("/regions/avg-charges", q -> regionsByAvgCharges());
+        routes.put("/features", q -> features());
+        routes.put("/regression/bmi", q -> regression(agg.bmiFit, "bmi", "charges"));
+        routes.put("/regression/children", q -> regression(agg.childrenFit, "children", "charges"));
+        routes.put("/regression/region", q -> regression(agg.regionFit, "charges", "region_code"));
+        routes.put("/regression/multiple", q -> multipleRegression(agg.chargesModel()));
+        routes.put("/predict/region", q -> predictRegion(q.get("charges")));
+        routes.put("/groupby", q -> groupBy(q.getOrDefault("by", ""), q.getOrDefault("agg", "count()")));
+        routes.put("/filter", q -> filter(q));
+        routes.put("/quantiles", q -> quantiles(q.getOrDefault("q", "0.5,0.9,0.99")));
+        routes.put("/records", q -> records(intParam(q, "offset", 0), intParam(q, "limit", 100)));
+        routes.put("/cache", q -> cacheStats());
+
+        table.index(); // built up front so the first /filter request doesn't pay for it
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        this.executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    void start() { server.start(); }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    int port() { return server.getAddress().getPort(); }
+
+    /** One virtual thread per request where available, else a fixed pool of daemon threads. */
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(8, 4 * Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "query");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // ---------- Request handling ----------
+
+    /** A request error reported to the client as {"error": message} with the given status. */
+    static final class BadRequest extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequest(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            if (!ex.getRequestMethod().equals("GET")) throw new BadRequest(405, "Only GET is supported.");
+            String path = ex.getRequestURI().getPath();
+            Function<Map<String, String>, String> route = routes.get(path);
+            if (route == null) throw new BadRequest(404, "No such endpoint: " + path);
+            Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+            body = UNCACHED.contains(path) ? route.apply(q)
+                    : Driver.cache.get(ResultCache.key(agg.version(), path, new TreeMap<>(q)), () -> route.apply(q));
+        } catch (BadRequest e) {
+            status = e.status;
+            body = new Json().begin().key("error").value(e.getMessage()).end().toString();
+        } catch (RuntimeException e) {
+            status = 500;
+            body = new Json().begin().key("error").value(String.valueOf(e)).end().toString();
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static Map<String, String> query(String raw) {
+        Map<String, String> q = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return q;
+        for (String part : raw.split("&")) {
+            int eq = part.indexOf('=');
+            String k = eq < 0 ? part : part.substring(0, eq), v = eq < 0 ? "" : part.substring(eq + 1);
+            q.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return q;
+    }
+
+    private static int intParam(Map<String, String> q, String name, int def) {
+        String v = q.get(name);
+        if (v == null) return def;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            throw new BadRequest(400, name + " must be an integer.");
+        }
+    }
+
+    // ---------- Endpoints ----------
+
+    private static String cacheStats() {
+        ResultCache c = Driver.cache;
+        return new Json().begin().key("entries").value(c.size()).key("capacity").value(c.capacity())
+                .key("hits").value(c.hits()).key("misses").value(c.misses()).key("evictions").value(c.evictions())
+                .end().toString();
+    }
+
+    private String index() {
+        Json j = new Json().begin().key("rows").value(agg.rows).key("endpoints").beginArray();
+        for (String path : routes.keySet()) j.value(path);
+        return j.endArray().end().toString();
+    }
+
+    private String stats() {
+        Json j = new Json().begin().key("rows").value(agg.rows);
+        for (Map.Entry<String, Driver.Stats> e : agg.computeFeature02Stats().entrySet()) {
+            j.key(e.getKey());
+            stats(j, e.getValue());
+        }
+        return j.end().toString();
+    }
+
+    private static void stats(Json j, Driver.Stats s) {
+        j.begin().key("count").value(s.count);
+        if (s.count > 0) j.key("min").value(s.min).key("max").value(s.max);
+        j.key("avg").value(s.avg()).end();
+    }
+
+    private String ageHistogram(int bin) {
+        if (bin <= 0) throw new BadRequest(400, "bin must be a positive integer.");
+        IntHistogram bins = new IntHistogram();
+        agg.ageCounts.forEach((age, count) -> bins.add(Math.floorDiv(age, bin) * bin, count));
+        return binned(bins, bin, "age");
+    }
+
+    private String bmiHistogram(int bin) {
+        if (bin <= 0) throw new BadRequest(400, "bin must be a positive integer.");
+        return binned(bin == agg.bmiBinSize ? agg.bmiBins : Driver.cachedBmiBins(table, bin), bin, "bmi");
+    }
+
+    private static String binned(IntHistogram bins, int bin, String column) {
+        Json j = new Json().begin().key("column").value(column).key("bin").value(bin).key("bins").beginArray();
+        bins.forEach((from, count) -> j.begin().key("from").value(from).key("to").value(from + bin - 1)
+                .key("count").value(count).end());
+        return j.endArray().end().toString();
+    }
+
+    private static String counts(IntHistogram counts, String column) {
+        Json j = new Json().begin().key("column").value(column).key("counts").beginArray();
+        counts.forEach((value, count) -> j.begin().key(column).value(value).key("count").value(count).end());
+        return j.endArray().end().toString();
+    }
+
+    private String regions() {
+        Json j = new Json().begin().key("counts").begin();
+        for (Map.Entry<String, Integer> e : agg.regionCounts().entrySet()) j.key(e.getKey()).value(e.getValue());
+        return j.end().key("fairWithin5Percent").value(agg.feature07_fairWithin5Percent()).end().toString();
+    }
+
+    private String regionsByAvgCharges() {
+        Json j = new Json().begin().key("regions").beginArray();
+        for (Map.Entry<String, Double> e : agg.feature15_regionsByAvgChargesDesc()) {
+            j.begin().key("region").value(e.getKey()).key("avgCharges").value(e.getValue()).end();
+        }
+        return j.endArray().end().toString();
+    }
+
+    private String features() {
+        double[] f17 = agg.feature17_southVsNorthSmokingRatesAndAvgAge();
+        Json j = new Json().begin()
+                .key("smokers").value(agg.smokerCharges.count)
+                .key("nonSmokers").value(agg.nonSmokerCharges.count)
+                .key("f07_fairWithin5Percent").value(agg.feature07_fairWithin5Percent())
+                .key("f08_oldVsYoungCharges").value(agg.feature08_oldVsYoungCharges())
+                .key("f09_bmi30to45HasWiderChargeRange").value(agg.feature09_bmi30to45HasWiderChargeRange())
+                .key("f10_lowerChargePerChild").value(agg.feature10_lowerChargePerChild())
+                .key("f11_smokersHigherAvgAndWider").value(agg.feature11_smokersHigherAvgAndWider())
+                .key("f12_southSmokers").value(agg.feature12_southSmokers())
+                .key("f13_smokersLowerBmi").value(agg.feature13_smokersLowerBmi())
+                .key("f17_southSmokingRate").value(f17[0])
+                .key("f17_northSmokingRate").value(f17[1])
+                .key("f17_southAvgAge").value(f17[2]);
+        for (Map<String, Double> m : List.of(agg.feature16_avgAges(), agg.feature18_bmiSouthNorth(),
+                agg.feature19_childrenSouthVsNorthAges())) {
+            for (Map.Entry<String, Double> e : m.entrySet()) j.key(e.getKey()).value(e.getValue());
+        }
+        return j.end().toString();
+    }
+
+    private static String regression(OnlineRegression reg, String x, String y) {
+        Json j = new Json().begin().key("x").value(x).key("y").value(y).key("n").value(reg.n);
+        if (reg.n < 2 || reg.sxx == 0) return j.key("error").value("Cannot compute regression.").end().toString();
+        Driver.RegressionStats st = Driver.fitSimpleLinearRegression(reg);
+        return j.key("intercept").value(st.a).key("slope").value(st.b).key("r").value(st.r)
+                .key("meanX").value(st.meanX).key("sdX").value(st.sdX)
+                .key("meanY").value(st.meanY).key("sdY").value(st.sdY).end().toString();
+    }
+
+    /** Coefficients of charges ~ age + bmi + children + smoker + region, with standard errors. */
+    private static String multipleRegression(MultipleRegression model) {
+        Json j = new Json().begin().key("y").value("charges").key("n").value(model.n);
+        MultipleRegression.Fit fit = model.fit();
+        if (fit == null) return j.key("error").value("Cannot compute regression.").end().toString();
+        j.key("rSquared").value(fit.rSquared).key("residualSd").value(fit.residualSd).key("terms").beginArray();
+        j.begin().key("term").value("intercept").key("coefficient").value(fit.intercept).key("stdError").value(fit.interceptError).end();
+        for (int i = 0; i < fit.coefficients.length; i++) {
+            j.begin().key("term").value(fit.predictors[i]).key("coefficient").value(fit.coefficients[i]);
+            if (!Double.isNaN(fit.standardErrors[i])) j.key("stdError").value(fit.standardErrors[i]);
+            j.end();
+        }
+        return j.endArray().end().toString();
+    }
+
+    private String predictRegion(String charges) {
+        if (agg.regionFit.n < 2 || agg.regionFit.sxx == 0) throw new BadRequest(409, "Not enough data to compute regression.");
+        if (charges == null || charges.isBlank()) throw new BadRequest(400, "charges is required (comma-separated numbers).");
+        String[] parts = charges.split(",");
+        double[] x = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                x[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new BadRequest(400, "Not a number: " + parts[i].trim());
+            }
+        }
+        double[] y = new double[x.length];
+        new BatchScorer(Driver.fitSimpleLinearRegression(agg.regionFit)).score(x, y);
+        Json j = new Json().begin().key("predictions").beginArray();
+        for (int i = 0; i < x.length; i++) j.begin().key("charges").value(x[i]).key("regionCode").value(y[i]).end();
+        return j.endArray().end().toString();
+    }
+
+    /** /groupby?by=region,smoker&agg=avg(charges),min(bmi),count() */
+    private String groupBy(String by, String aggs) {
+        GroupBy.Result r;
+        try {
+            List<GroupBy.Dimension> dims = new ArrayList<>();
+            for (String name : by.split(",")) if (!name.isBlank()) dims.add(GroupBy.dimension(name.trim()));
+            List<GroupBy.Agg> specs = new ArrayList<>();
+            for (String spec : aggs.split(",")) if (!spec.isBlank()) specs.add(GroupBy.Agg.parse(spec));
+            r = GroupBy.of(table).by(dims.toArray(new GroupBy.Dimension[0])).agg(specs.toArray(new GroupBy.Agg[0]));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest(400, e.getMessage());
+        }
+        Json j = new Json().begin().key("by").beginArray();
+        for (GroupBy.Bound d : r.dims) j.value(d.name);
+        j.endArray().key("groups").beginArray();
+        for (int i = 0; i < r.size(); i++) {
+            j.begin();
+            String[] key = r.key(i);
+            for (int d = 0; d < key.length; d++) {
+                j.key(r.dims[d].name);
+                if (r.dims[d].numeric) j.value(r.intKey(i, d)); else j.value(key[d]);
+            }
+            for (int a = 0; a < r.aggs.length; a++) {
+                j.key(r.aggs[a].toString());
+                if (r.aggs[a].kind == GroupBy.Kind.COUNT) j.value(r.count(i)); else j.value(r.value(i, a));
+            }
+            j.end();
+        }
+        return j.endArray().end().toString();
+    }
+
+    /** /quantiles?q=0.5,0.9,0.99: approximate quantiles of every sketch group (see QuantileSketch). */
+    private String quantiles(String qs) {
+        String[] parts = qs.split(",");
+        double[] q = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                q[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                q[i] = Double.NaN;
+            }
+            if (!(q[i] >= 0 && q[i] <= 1)) throw new BadRequest(400, "q must be numbers in [0, 1].");
+        }
+        Json j = new Json().begin().key("k").value(QuantileSketch.DEFAULT_K).key("groups").beginArray();
+        for (Map.Entry<String, QuantileSketch> e : agg.quantileSketches().entrySet()) {
+            QuantileSketch s = e.getValue();
+            j.begin().key("group").value(e.getKey()).key("count").value(s.count()).key("quantiles").beginArray();
+            for (double x : q) j.begin().key("q").value(x).key("value").value(s.quantile(x)).end();
+            j.endArray().end();
+        }
+        return j.endArray().end().toString();
+    }
+
+    /**
+     * /filter?smoker=yes&region=south*&age=50-&bmi=30-45&agg=avg(charges),count(). Filters on
+     * different columns are ANDed; a comma-separated list of values (or a trailing * prefix
+     * match) ORs the matching values of one column. Ranges are inclusive and may be open
+     * ("50-", "-20"); an empty selection gives null aggregates.
+     */
+    private String filter(Map<String, String> q) {
+        BitmapIndex idx = table.index();
+        RowBitmap rows = idx.all;
+        List<GroupBy.Agg> specs = new ArrayList<>();
+        try {
+            for (Map.Entry<String, String> e : new TreeMap<>(q).entrySet()) {
+                String v = e.getValue().trim();
+                switch (e.getKey()) {
+                    case "smoker":
+                        if (!v.equalsIgnoreCase("yes") && !v.equalsIgnoreCase("no")) throw new IllegalArgumentException("smoker must be yes or no.");
+                        rows = rows.and(idx.smoker(v.equalsIgnoreCase("yes")));
+                        break;
+                    case "sex":      rows = rows.and(idx.sex(valueMatcher(v))); break;
+                    case "region":   rows = rows.and(idx.region(valueMatcher(v))); break;
+                    case "children": { double[] r = range(e.getKey(), v); rows = rows.and(idx.children(clamp(Math.ceil(r[0])), clamp(Math.floor(r[1])))); break; }
+                    case "age":      { double[] r = range(e.getKey(), v); rows = rows.and(idx.age(clamp(Math.ceil(r[0])), clamp(Math.floor(r[1])))); break; }
+                    case "bmi":      { double[] r = range(e.getKey(), v); rows = rows.and(idx.bmi(r[0], r[1], true)); break; }
+                    case "agg":
+                        for (String spec : v.split(",")) if (!spec.isBlank()) specs.add(GroupBy.Agg.parse(spec));
+                        break;
+                    default: throw new IllegalArgumentException("Unknown filter: " + e.getKey());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest(400, e.getMessage());
+        }
+        if (specs.isEmpty()) specs.add(GroupBy.count());
+        Json j = new Json().begin().key("rows").value(rows.cardinality()).key("aggregates").begin();
+        for (GroupBy.Agg a : specs) {
+            j.key(a.toString());
+            if (a.kind == GroupBy.Kind.COUNT) j.value(rows.cardinality()); else j.value(idx.aggregate(rows, a));
+        }
+        return j.end().end().toString();
+    }
+
+    /** Comma-separated values, lower-cased; "south*" matches every value starting with "south". */
+    private static Predicate<String> valueMatcher(String spec) {
+        List<String> exact = new ArrayList<>(), prefixes = new ArrayList<>();
+        for (String part : spec.toLowerCase().split(",")) {
+            String p = part.trim();
+            if (p.endsWith("*")) prefixes.add(p.substring(0, p.length() - 1)); else exact.add(p);
+        }
+        return v -> exact.contains(v) || prefixes.stream().anyMatch(v::startsWith);
+    }
+
+    /** "lo-hi", "lo-", "-hi" or a single value, as {lo, hi}. */
+    private static double[] range(String name, String spec) {
+        int dash = spec.indexOf('-');
+        try {
+            String lo = dash < 0 ? spec : spec.substring(0, dash).trim(), hi = dash < 0 ? spec : spec.substring(dash + 1).trim();
+            double[] r = {lo.isEmpty() ? Double.NEGATIVE_INFINITY : Double.parseDouble(lo),
+                          hi.isEmpty() ? Double.POSITIVE_INFINITY : Double.parseDouble(hi)};
+            if (Double.isNaN(r[0]) || Double.isNaN(r[1])) throw new NumberFormatException();
+            return r;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number or a range like 30-45.");
+        }
+    }
+
+    private static int clamp(double v) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v));
+    }
+
+    private String records(int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new BadRequest(400, "offset and limit must not be negative.");
+        int from = Math.min(offset, table.size()), to = (int) Math.min((long) from + Math.min(limit, MAX_RECORDS_PER_PAGE), table.size());
+        Json j = new Json().begin().key("total").value(table.size()).key("offset").value(from).key("records").beginArray();
+        for (int i = from; i < to; i++) {
+            j.begin().key("age").value(table.age[i])
+             .key("sex").value(table.sexDict.decode(table.sexCode(i)))
+             .key("bmi").value(table.bmi[i])
+             .key("children").value(table.children[i])
+             .key("smoker").value(table.smokerDict.decode(table.smokerCode(i)))
+             .key("region").value(table.regionDict.decode(table.regionCode(i)))
+             .key("charges").value(table.charges[i]).end();
+        }
+        return j.endArray().end().toString();
+    }
+
+    // ---------- Minimal JSON writer ----------
+
+    static final class Json {
+        private final StringBuilder sb = new StringBuilder(256);
+        private boolean[] needsComma = new boolean[8];
+        private int depth = 0;
+        private boolean afterKey = false;
+
+        Json begin() { open('{'); return this; }
+        Json end() { sb.append('}'); depth--; return this; }
+        Json beginArray() { open('['); return this; }
+        Json endArray() { sb.append(']'); depth--; return this; }
+
+        Json key(String k) {
+            separator();
+            string(k);
+            sb.append(':');
+            afterKey = true;
+            return this;
+        }
+
+        Json value(String s) { separator(); string(s); return this; }
+        Json value(long v) { separator(); sb.append(v); return this; }
+        Json value(boolean v) { separator(); sb.append(v); return this; }
+
+        Json value(double v) {
+            separator();
+            if (Double.isNaN(v) || Double.isInfinite(v)) sb.append("null");
+            else sb.append(v);
+            return this;
+        }
+
+        private void open(char c) {
+            separator();
+            sb.append(c);
+            if (++depth == needsComma.length) needsComma = Arrays.copyOf(needsComma, depth * 2);
+            needsComma[depth] = false;
+        }
+
+        private void separator() {
+            if (afterKey) { afterKey = false; return; }
+            if (needsComma[depth]) sb.append(',');
+            needsComma[depth] = true;
+        }
+
+        private void string(String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') sb.append('\\').append(c);
+                else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                else sb.append(c);
+            }
+            sb.append('"');
+        }
+
+        @Override
+        public String toString() { return sb.toString(); }
+    }
+}
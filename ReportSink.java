@@ -0,0 +1,131 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Buffered text sink for report output. Text is collected in one reusable buffer and
+ * handed to the target (System.out by default) in large chunks instead of one printf per
+ * line. Numbers are formatted without String.format but produce the same characters as
+ * the printf conversions they replace (%d, %Nd, %Ns, %.Nf) in the default locale.
+ * Printers that use the sink flush it before returning, so their output stays ordered
+ * with anything printed directly to System.out.
+ */
+final class ReportSink implements Appendable, Flushable {
+    static final int FLUSH_CHARS = 1 << 16;
+    static final String NL = System.lineSeparator(); // what %n and println write
+
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6};
+    private static final long[] POW10L = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L};
+
+    private final Appendable target;
+    private final StringBuilder buf = new StringBuilder(FLUSH_CHARS + 1024);
+    /** True when the default format locale prints numbers with ASCII digits, '.' and '-'. */
+    private final boolean plainDigits;
+
+    ReportSink(Appendable target) {
+        this.target = target;
+        DecimalFormatSymbols sym = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        this.plainDigits = sym.getZeroDigit() == '0' && sym.getDecimalSeparator() == '.' && sym.getMinusSign() == '-';
+    }
+
+    /** A sink that writes to the current System.out. */
+    static ReportSink stdout() {
+        return new ReportSink(System.out);
+    }
+
+    @Override
+    public ReportSink append(CharSequence s) {
+        buf.append(s);
+        return spill();
+    }
+
+    @Override
+    public ReportSink append(CharSequence s, int start, int end) {
+        buf.append(s, start, end);
+        return spill();
+    }
+
+    @Override
+    public ReportSink append(char c) {
+        buf.append(c);
+        return spill();
+    }
+
+    ReportSink newline() {
+        buf.append(NL);
+        return spill();
+    }
+
+    ReportSink repeat(char c, int count) {
+        for (int i = 0; i < count; i++) buf.append(c);
+        return spill();
+    }
+
+    /** %d */
+    ReportSink appendInt(long v) {
+        if (plainDigits) buf.append(v);
+        else buf.append(String.format("%d", v));
+        return spill();
+    }
+
+    /** %{width}d */
+    ReportSink padInt(long v, int width) {
+        return padLeft(plainDigits ? Long.toString(v) : String.format("%d", v), width);
+    }
+
+    /** %{width}s */
+    ReportSink padLeft(String s, int width) {
+        for (int i = s.length(); i < width; i++) buf.append(' ');
+        buf.append(s);
+        return spill();
+    }
+
+    /**
+     * %.{decimals}f. Formatter rounds the shortest decimal representation of v half-up; away
+     * from a .5 tie at the last digit that is the same as rounding v * 10^decimals, which is
+     * what the fast path does. Ties, large magnitudes, NaN and infinities use String.format.
+     */
+    ReportSink appendFixed(double v, int decimals) {
+        if (plainDigits && decimals < POW10.length) {
+            double scaled = Math.abs(v) * POW10[decimals];
+            if (scaled < 1e12) { // excludes NaN and infinity; the product is accurate to 1e-4 here
+                double whole = Math.floor(scaled);
+                double frac = scaled - whole;
+                if (Math.abs(frac - 0.5) > 1e-3) {
+                    long units = (long) whole + (frac > 0.5 ? 1 : 0);
+                    if (v < 0 || (v == 0 && 1 / v < 0)) buf.append('-'); // Formatter keeps the sign of -0.00
+                    buf.append(units / POW10L[decimals]);
+                    if (decimals > 0) {
+                        buf.append('.');
+                        long fraction = units % POW10L[decimals];
+                        for (long p = POW10L[decimals - 1]; p > 1 && fraction < p; p /= 10) buf.append('0');
+                        buf.append(fraction);
+                    }
+                    return spill();
+                }
+            }
+        }
+        buf.append(String.format("%." + decimals + "f", v));
+        return spill();
+    }
+
+    private ReportSink spill() {
+        if (buf.length() >= FLUSH_CHARS) flush();
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        try {
+            if (buf.length() > 0) {
+                target.append(buf);
+                buf.setLength(0);
+            }
+            if (target instanceof Flushable) ((Flushable) target).flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Memo for feature results, bounded to a number of entries with least-recently-used
+ * eviction. A key is a dataset version plus a feature id plus the feature's arguments.
+ * Datasets (InsuranceTable, FeatureAggregator) take a new version from nextVersion() the
+ * first time they are asked after a change, so results for older contents are never hit
+ * again and age out of the cache.
+ *
+ * Cached values are shared between callers and must not be modified. Safe for concurrent
+ * use; the computation runs outside the lock, so two threads missing on the same key may
+ * both compute it (the first result stored wins).
+ */
+final class ResultCache {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /** A version number no dataset has used before (never 0). */
+    static long nextVersion() {
+        return VERSIONS.incrementAndGet();
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<List<Object>, Object> entries;
+    private long hits, misses, evictions;
+
+    ResultCache(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) { // access order: eldest = least recently used
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                if (size() <= ResultCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    static List<Object> key(long version, String feature, Object... args) {
+        List<Object> key = new ArrayList<>(2 + args.length);
+        key.add(version);
+        key.add(feature);
+        key.addAll(Arrays.asList(args));
+        return key;
+    }
+
+    /** Returns the cached value for key, computing and storing it on a miss. compute must not return null. */
+    @SuppressWarnings("unchecked")
+    <T> T get(List<Object> key, Supplier<T> compute) {
+        synchronized (this) {
+            Object v = entries.get(key);
+            if (v != null) {
+                hits++;
+                return (T) v;
+            }
+            misses++;
+        }
+        T v = compute.get();
+        synchronized (this) {
+            Object prev = entries.putIfAbsent(key, v);
+            return prev != null ? (T) prev : v;
+        }
+    }
+
+    /** Drops every entry computed from the given dataset version. */
+    synchronized void invalidate(long version) {
+        entries.keySet().removeIf(k -> k.get(0).equals(version));
+    }
+
+    synchronized void clear() { entries.clear(); }
+
+    synchronized int size() { return entries.size(); }
+
+    int capacity() { return capacity; }
+
+    synchronized long hits() { return hits; }
+
+    synchronized long misses() { return misses; }
+
+    synchronized long evictions() { return evictions; }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache[" + entries.size() + "/" + capacity + " entries, " + hits + " hits, "
+                + misses + " misses, " + evictions + " evictions]";
+    }
+}
@@ -0,0 +1,311 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable compressed set of row numbers, laid out like a Roaring bitmap: rows are split
+ * into chunks of 65536 by their high 16 bits, and each non-empty chunk is stored either as
+ * a sorted char[] of its low 16 bits (up to ARRAY_MAX rows) or as a 1024-word bitset.
+ * Sparse selections cost two bytes per row, dense ones one bit per row, and AND/OR/ANDNOT
+ * work chunk by chunk without expanding either side.
+ *
+ * Iteration is always in ascending row order, so aggregates over the selected rows add
+ * values in the same order as a scan of the whole table.
+ */
+final class RowBitmap {
+    static final int ARRAY_MAX = 4096; // above this a chunk is smaller as a bitset
+    private static final int WORDS = 1024;
+
+    static final RowBitmap EMPTY = new RowBitmap(new char[0], new Object[0], new int[0]);
+
+    private final char[] keys;         // high 16 bits of each chunk, ascending
+    private final Object[] chunks;     // char[] (sorted low bits) or long[WORDS]
+    private final int[] cardinalities; // rows per chunk
+
+    private RowBitmap(char[] keys, Object[] chunks, int[] cardinalities) {
+        this.keys = keys;
+        this.chunks = chunks;
+        this.cardinalities = cardinalities;
+    }
+
+    /** Rows from (inclusive) to to (exclusive). */
+    static RowBitmap range(int from, int to) {
+        Builder b = new Builder();
+        for (int row = from; row < to; row++) b.add(row);
+        return b.build();
+    }
+
+    /** Builds a bitmap from rows added in strictly ascending order. */
+    static final class Builder {
+        private char[] keys = new char[4];
+        private Object[] chunks = new Object[4];
+        private int[] cards = new int[4];
+        private int size;
+        private int key = -1;
+        private char[] low = new char[16];
+        private int count;
+        private int last = -1;
+
+        Builder add(int row) {
+            if (row <= last) throw new IllegalArgumentException("Rows must be added in ascending order: " + row);
+            last = row;
+            int k = row >>> 16;
+            if (k != key) {
+                flush();
+                key = k;
+            }
+            if (count == low.length) low = Arrays.copyOf(low, count * 2);
+            low[count++] = (char) row;
+            return this;
+        }
+
+        private void flush() {
+            if (count == 0) return;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                chunks = Arrays.copyOf(chunks, size * 2);
+                cards = Arrays.copyOf(cards, size * 2);
+            }
+            keys[size] = (char) key;
+            chunks[size] = count <= ARRAY_MAX ? Arrays.copyOf(low, count) : toWords(low, count);
+            cards[size] = count;
+            size++;
+            count = 0;
+        }
+
+        RowBitmap build() {
+            flush();
+            RowBitmap out = new RowBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(chunks, size), Arrays.copyOf(cards, size));
+            size = 0;
+            key = last = -1;
+            return out;
+        }
+    }
+
+    int cardinality() {
+        int n = 0;
+        for (int c : cardinalities) n += c;
+        return n;
+    }
+
+    boolean isEmpty() { return keys.length == 0; }
+
+    boolean contains(int row) {
+        int i = Arrays.binarySearch(keys, (char) (row >>> 16));
+        if (row < 0 || i < 0) return false;
+        Object c = chunks[i];
+        char lo = (char) row;
+        return c instanceof char[] ? Arrays.binarySearch((char[]) c, lo) >= 0 : (((long[]) c)[lo >>> 6] & (1L << lo)) != 0;
+    }
+
+    /** Calls action for every row, ascending. */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            int high = keys[i] << 16;
+            Object c = chunks[i];
+            if (c instanceof char[]) {
+                for (char lo : (char[]) c) action.accept(high | lo);
+            } else {
+                long[] words = (long[]) c;
+                for (int w = 0; w < WORDS; w++) {
+                    for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                        action.accept(high | w << 6 | Long.numberOfTrailingZeros(bits));
+                    }
+                }
+            }
+        }
+    }
+
+    /** The rows, ascending. */
+    int[] toArray() {
+        int[] out = new int[cardinality()];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int high = keys[i] << 16;
+            Object c = chunks[i];
+            if (c instanceof char[]) {
+                for (char lo : (char[]) c) out[n++] = high | lo;
+            } else {
+                long[] words = (long[]) c;
+                for (int w = 0; w < WORDS; w++) {
+                    for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                        out[n++] = high | w << 6 | Long.numberOfTrailingZeros(bits);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /** The rows for which keep is true. */
+    RowBitmap filter(IntPredicate keep) {
+        Builder b = new Builder();
+        for (int row : toArray()) if (keep.test(row)) b.add(row);
+        return b.build();
+    }
+
+    // ---------- Set operations ----------
+
+    private static final int AND = 0, OR = 1, ANDNOT = 2;
+
+    RowBitmap and(RowBitmap other) { return combine(this, other, AND); }
+
+    RowBitmap or(RowBitmap other) { return combine(this, other, OR); }
+
+    RowBitmap andNot(RowBitmap other) { return combine(this, other, ANDNOT); }
+
+    /** Number of rows in both bitmaps, without building the intersection. */
+    int andCardinality(RowBitmap other) {
+        int n = 0;
+        for (int i = 0, j = 0; i < keys.length && j < other.keys.length; ) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (keys[i] > other.keys[j]) j++;
+            else {
+                n += countAnd(chunks[i], other.chunks[j]);
+                i++;
+                j++;
+            }
+        }
+        return n;
+    }
+
+    static RowBitmap or(Iterable<RowBitmap> bitmaps) {
+        RowBitmap out = EMPTY;
+        for (RowBitmap b : bitmaps) out = out.or(b);
+        return out;
+    }
+
+    private static RowBitmap combine(RowBitmap a, RowBitmap b, int op) {
+        int max = op == OR ? a.keys.length + b.keys.length : a.keys.length;
+        char[] keys = new char[max];
+        Object[] chunks = new Object[max];
+        int[] cards = new int[max];
+        int n = 0, i = 0, j = 0;
+        while (i < a.keys.length || j < b.keys.length) {
+            int ka = i < a.keys.length ? a.keys[i] : Integer.MAX_VALUE;
+            int kb = j < b.keys.length ? b.keys[j] : Integer.MAX_VALUE;
+            Object c;
+            int key;
+            if (ka < kb) {
+                key = ka;
+                c = op == AND ? null : a.chunks[i];
+                i++;
+            } else if (kb < ka) {
+                key = kb;
+                c = op == OR ? b.chunks[j] : null;
+                j++;
+                if (op != OR && i == a.keys.length) break;
+            } else {
+                key = ka;
+                c = combineChunks(a.chunks[i], b.chunks[j], op);
+                i++;
+                j++;
+            }
+            if (c == null) continue;
+            int card = cardinality(c);
+            if (card == 0) continue;
+            keys[n] = (char) key;
+            chunks[n] = c;
+            cards[n] = card;
+            n++;
+        }
+        return new RowBitmap(Arrays.copyOf(keys, n), Arrays.copyOf(chunks, n), Arrays.copyOf(cards, n));
+    }
+
+    private static Object combineChunks(Object a, Object b, int op) {
+        if (a instanceof char[] && b instanceof char[]) return merge((char[]) a, (char[]) b, op);
+        if (op == AND && a instanceof char[]) return keep((char[]) a, (long[]) b, true);
+        if (op == AND && b instanceof char[]) return keep((char[]) b, (long[]) a, true);
+        if (op == ANDNOT && a instanceof char[]) return keep((char[]) a, (long[]) b, false);
+        long[] x = words(a), y = words(b), out = new long[WORDS];
+        int card = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long v = op == AND ? x[w] & y[w] : op == OR ? x[w] | y[w] : x[w] & ~y[w];
+            out[w] = v;
+            card += Long.bitCount(v);
+        }
+        return card <= ARRAY_MAX ? toLow(out, card) : out;
+    }
+
+    /** Sorted merge of two array chunks; switches to a bitset when an OR outgrows ARRAY_MAX. */
+    private static Object merge(char[] a, char[] b, int op) {
+        char[] out = new char[op == OR ? a.length + b.length : a.length];
+        int n = 0, i = 0, j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                if (op != AND) out[n++] = a[i];
+                i++;
+            } else if (a[i] > b[j]) {
+                if (op == OR) out[n++] = b[j];
+                j++;
+            } else {
+                if (op != ANDNOT) out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        if (op != AND) while (i < a.length) out[n++] = a[i++];
+        if (op == OR) while (j < b.length) out[n++] = b[j++];
+        return n <= ARRAY_MAX ? Arrays.copyOf(out, n) : toWords(out, n);
+    }
+
+    /** Rows of an array chunk that are (present) or are not (!present) in a bitset chunk. */
+    private static char[] keep(char[] a, long[] bits, boolean present) {
+        char[] out = new char[a.length];
+        int n = 0;
+        for (char lo : a) if (((bits[lo >>> 6] & (1L << lo)) != 0) == present) out[n++] = lo;
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int countAnd(Object a, Object b) {
+        if (a instanceof char[] && b instanceof char[]) return ((char[]) merge((char[]) a, (char[]) b, AND)).length;
+        if (a instanceof char[]) return keep((char[]) a, (long[]) b, true).length;
+        if (b instanceof char[]) return keep((char[]) b, (long[]) a, true).length;
+        long[] x = (long[]) a, y = (long[]) b;
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) n += Long.bitCount(x[w] & y[w]);
+        return n;
+    }
+
+    private static int cardinality(Object chunk) {
+        if (chunk instanceof char[]) return ((char[]) chunk).length;
+        int n = 0;
+        for (long w : (long[]) chunk) n += Long.bitCount(w);
+        return n;
+    }
+
+    private static long[] words(Object chunk) {
+        return chunk instanceof char[] ? toWords((char[]) chunk, ((char[]) chunk).length) : (long[]) chunk;
+    }
+
+    private static long[] toWords(char[] low, int count) {
+        long[] words = new long[WORDS];
+        for (int i = 0; i < count; i++) words[low[i] >>> 6] |= 1L << low[i];
+        return words;
+    }
+
+    private static char[] toLow(long[] words, int card) {
+        char[] out = new char[card];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            for (long bits = words[w]; bits != 0; bits &= bits - 1) out[n++] = (char) (w << 6 | Long.numberOfTrailingZeros(bits));
+        }
+        return out;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RowBitmap)) return false;
+        return Arrays.equals(toArray(), ((RowBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() { return Arrays.hashCode(toArray()); }
+
+    @Override
+    public String toString() {
+        int bitsets = 0;
+        for (Object c : chunks) if (c instanceof long[]) bitsets++;
+        return "RowBitmap[" + cardinality() + " rows, " + keys.length + " chunks, " + bitsets + " bitsets]";
+    }
+}
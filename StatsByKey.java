@@ -0,0 +1,52 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Driver.Stats per int key without boxing on the hot path. Keys in [0, MAX_DENSE_KEY), such as
+ * children counts, index a Stats[] directly; any other key (negative or an outlier) goes to a
+ * small sorted map. Iteration is in ascending key order, like a TreeMap&lt;Integer, Stats&gt;.
+ */
+final class StatsByKey {
+    static final int MAX_DENSE_KEY = 1 << 16;
+
+    private Driver.Stats[] dense = new Driver.Stats[8];
+    private final Map<Integer, Driver.Stats> others = new TreeMap<>();
+    private int size;
+
+    /** The Stats of key, created empty on first use. */
+    Driver.Stats get(int key) {
+        if (key >= 0 && key < MAX_DENSE_KEY) {
+            if (key >= dense.length) dense = Arrays.copyOf(dense, Math.min(MAX_DENSE_KEY, Math.max(key + 1, 2 * dense.length)));
+            Driver.Stats s = dense[key];
+            if (s == null) {
+                dense[key] = s = new Driver.Stats();
+                size++;
+            }
+            return s;
+        }
+        Driver.Stats s = others.get(key);
+        if (s == null) {
+            others.put(key, s = new Driver.Stats());
+            size++;
+        }
+        return s;
+    }
+
+    /** Number of keys with Stats. */
+    int size() { return size; }
+
+    /** The keys with Stats, ascending. */
+    int[] keys() {
+        int[] out = new int[size];
+        int n = 0;
+        for (int key : others.keySet()) if (key < 0) out[n++] = key;
+        for (int key = 0; key < dense.length; key++) if (dense[key] != null) out[n++] = key;
+        for (int key : others.keySet()) if (key >= 0) out[n++] = key;
+        return out;
+    }
+
+    void merge(StatsByKey other) {
+        for (int key : other.keys()) get(key).merge(other.get(key));
+    }
+}
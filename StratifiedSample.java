@@ -0,0 +1,399 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+/**
+ * A uniform reservoir sample of the rows in every (smoker, region) stratum, for answering the
+ * report's yes/no checks (features 07-13, 17 and 19) without the full aggregation. The pass
+ * over the rows keeps, besides the samples, what a sample can't estimate: each stratum's row
+ * count, the charge extremes per stratum and per BMI band, the children values present and
+ * whether bmi or charges has NaNs. Counts and extremes are exact, so features 07 and 09, the
+ * smoking rates of 17 and the range half of 11 are exact too.
+ *
+ * Averages over a group are stratified ratio estimates: a sampled row stands for
+ * rows / sampled rows of its stratum. A check compares two of them, e.g.
+ * mean(charges, age >= 50) - 2 * mean(charges, age <= 20) >= 0 for feature 08. The variance of
+ * that difference comes from the linearized (Taylor) residuals within each stratum, with the
+ * finite population correction, so a stratum sampled in full adds none. The check is decided
+ * only when the whole 99% interval lies on one side of the threshold. Otherwise, or when a
+ * group has fewer than MIN_DOMAIN_ROWS sampled rows for the normal approximation (unless
+ * every stratum is sampled in full), the answer is left to an exact scan.
+ *
+ * Reservoirs use Algorithm L (Li 1994): after a stratum's reservoir fills, the rows to
+ * take are found by drawing skip lengths, so rows that are skipped cost one comparison. The
+ * generator is seeded, so the same rows in the same order give the same sample.
+ */
+final class StratifiedSample {
+    static final int DEFAULT_PER_STRATUM = 4096;
+    static final double Z = 2.5758; // two-sided 99% normal quantile
+    static final int MIN_DOMAIN_ROWS = 30;
+    private static final long SEED = 42;
+
+    /** A stratum: its exact row count and charge range, and a uniform sample of its rows. */
+    static final class Stratum {
+        final String region;  // lower-cased
+        final boolean smoker, south, north;
+        long rows;
+        double minCharges = Double.POSITIVE_INFINITY, maxCharges = Double.NEGATIVE_INFINITY;
+        int size; // sampled rows
+        int[] age = new int[16], children = new int[16];
+        double[] bmi = new double[16], charges = new double[16];
+        private final SplittableRandom rnd;
+        private double w;  // Algorithm L state
+        private long next; // row of the stratum to take next, once the reservoir is full
+
+        Stratum(String smoker, String region, SplittableRandom rnd) {
+            this.region = region.toLowerCase();
+            this.smoker = "yes".equalsIgnoreCase(smoker);
+            south = this.region.contains("south");
+            north = !south && this.region.contains("north");
+            this.rnd = rnd;
+        }
+
+        void add(int a, double b, int c, double ch, int k) {
+            long row = rows++;
+            if (ch < minCharges) minCharges = ch;
+            if (ch > maxCharges) maxCharges = ch;
+            int slot;
+            if (row < k) {
+                slot = size++;
+                if (slot == age.length) grow(Math.min(k, 2 * slot));
+                if (size == k) {
+                    w = Math.exp(Math.log(uniform()) / k);
+                    next = row + 1 + skip();
+                }
+            } else if (row == next) {
+                slot = rnd.nextInt(k);
+                w *= Math.exp(Math.log(uniform()) / k);
+                next = row + 1 + skip();
+            } else {
+                return;
+            }
+            age[slot] = a; bmi[slot] = b; children[slot] = c; charges[slot] = ch;
+        }
+
+        private long skip() {
+            double s = Math.floor(Math.log(uniform()) / Math.log(1 - w));
+            return s < 1L << 62 ? (long) s : 1L << 62;
+        }
+
+        private double uniform() { return 1 - rnd.nextDouble(); } // (0, 1]
+
+        private void grow(int cap) {
+            age = Arrays.copyOf(age, cap); children = Arrays.copyOf(children, cap);
+            bmi = Arrays.copyOf(bmi, cap); charges = Arrays.copyOf(charges, cap);
+        }
+    }
+
+    private final int perStratum;
+    private final SplittableRandom root = new SplittableRandom(SEED);
+    private final Map<String, Stratum> strata = new LinkedHashMap<>(); // by smoker and region value, first seen first
+    long rows;
+    // Charge extremes per BMI band as feature 09 splits them: < 30, 30-45, > 45 (and NaN)
+    private final double[] bandMin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+    private final double[] bandMax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    private final IntHistogram childrenSeen = new IntHistogram(); // rows per children value
+    private boolean nanBmi, nanCharges;
+
+    private InsuranceTable.Dictionary boundSmokers, boundRegions;
+    private int boundSmokerSize = -1, boundRegionSize = -1;
+    private static final int MAX_STRATUM_CODES = 1 << 20;
+    // smoker code * region codes + region code, filled on first use; null when the dictionaries
+    // are too large for a dense table, and strata are looked up by value instead
+    private Stratum[] stratumByCode;
+
+    StratifiedSample() { this(DEFAULT_PER_STRATUM); }
+
+    StratifiedSample(int perStratum) {
+        if (perStratum < 2) throw new IllegalArgumentException("Need at least 2 sampled rows per stratum: " + perStratum);
+        this.perStratum = perStratum;
+    }
+
+    int perStratum() { return perStratum; }
+
+    int strata() { return strata.size(); }
+
+    /** Rows in the sample, over all strata. */
+    long sampled() {
+        long n = 0;
+        for (Stratum s : strata.values()) n += s.size;
+        return n;
+    }
+
+    void accept(InsuranceTable t) { accept(t, 0, t.size()); }
+
+    void accept(InsuranceTable t, int from, int to) {
+        bind(t.smokerDict, t.regionDict);
+        for (int i = from; i < to; i++) {
+            add(t.age[i], t.bmi[i], t.children[i], t.smokerCode(i), t.regionCode(i), t.charges[i]);
+        }
+    }
+
+    /** Rows [from, to) of an off-heap table, read in place. */
+    void accept(OffHeapTable t, int from, int to) {
+        bind(t.smokerDict, t.regionDict);
+        for (int row = from; row < to; ) {
+            int c = row >>> OffHeapTable.CHUNK_SHIFT, i = row & OffHeapTable.CHUNK_MASK;
+            int end = i + Math.min(to - row, OffHeapTable.CHUNK_ROWS - i);
+            ByteBuffer bmiCol = t.bmi[c], chargesCol = t.charges[c], ageCol = t.age[c];
+            ByteBuffer childrenCol = t.children[c], smokerCol = t.smoker[c], regionCol = t.region[c];
+            for (; i < end; i++, row++) {
+                add(ageCol.getInt(i << 2), bmiCol.getDouble(i << 3), childrenCol.getInt(i << 2),
+                    smokerCol.getChar(i << 1), regionCol.getChar(i << 1), chargesCol.getDouble(i << 3));
+            }
+        }
+    }
+
+    private void bind(InsuranceTable.Dictionary smokers, InsuranceTable.Dictionary regions) {
+        if (smokers != boundSmokers || smokers.size() != boundSmokerSize || regions != boundRegions || regions.size() != boundRegionSize) {
+            boundSmokers = smokers;
+            boundSmokerSize = smokers.size();
+            boundRegions = regions;
+            boundRegionSize = regions.size();
+            long codes = (long) boundSmokerSize * boundRegionSize;
+            stratumByCode = codes <= MAX_STRATUM_CODES ? new Stratum[(int) codes] : null;
+        }
+    }
+
+    private void add(int a, double b, int c, int smokerCode, int regionCode, double ch) {
+        rows++;
+        Stratum s = stratumByCode == null ? null : stratumByCode[smokerCode * boundRegionSize + regionCode];
+        if (s == null) s = stratum(smokerCode, regionCode);
+        s.add(a, b, c, ch, perStratum);
+        int band = b < 30 ? 0 : b <= 45 ? 1 : 2;
+        if (ch < bandMin[band]) bandMin[band] = ch;
+        if (ch > bandMax[band]) bandMax[band] = ch;
+        childrenSeen.add(c);
+        if (b != b) nanBmi = true;
+        if (ch != ch) nanCharges = true;
+    }
+
+    private Stratum stratum(int smokerCode, int regionCode) {
+        String smoker = boundSmokers.decode(smokerCode), region = boundRegions.decode(regionCode);
+        Stratum s = strata.computeIfAbsent(smoker + '\0' + region, k -> new Stratum(smoker, region, root.split()));
+        if (stratumByCode != null) stratumByCode[smokerCode * boundRegionSize + regionCode] = s;
+        return s;
+    }
+
+    // ---------- Estimates ----------
+
+    /** A value per sampled row of a group; NaN for rows outside the group. */
+    private interface RowValue {
+        double of(Stratum s, int i);
+    }
+
+    /** ca * mean(a) - cb * mean(b) and the half-width of its 99% interval. */
+    static final class Estimate {
+        final double value, halfWidth, meanA, meanB;
+        final long rowsA, rowsB; // sampled rows in each group
+        final boolean census;    // every stratum is in the sample in full: the value is exact
+
+        Estimate(double value, double halfWidth, double meanA, double meanB, long rowsA, long rowsB, boolean census) {
+            this.census = census;
+            this.value = value;
+            this.halfWidth = halfWidth;
+            this.meanA = meanA;
+            this.meanB = meanB;
+            this.rowsA = rowsA;
+            this.rowsB = rowsB;
+        }
+
+        double lower() { return value - halfWidth; }
+
+        double upper() { return value + halfWidth; }
+
+        @Override
+        public String toString() { return String.format(Locale.US, "%.2f ± %.2f", value, halfWidth); }
+    }
+
+    private Estimate contrast(RowValue a, double ca, RowValue b, double cb) {
+        double xa = 0, ya = 0, xb = 0, yb = 0;
+        long na = 0, nb = 0;
+        for (Stratum s : strata.values()) {
+            double w = (double) s.rows / s.size; // population rows per sampled row
+            for (int i = 0; i < s.size; i++) {
+                double va = a.of(s, i), vb = b == null ? Double.NaN : b.of(s, i);
+                if (va == va) { xa += w; ya += w * va; na++; }
+                if (vb == vb) { xb += w; yb += w * vb; nb++; }
+            }
+        }
+        double ma = na == 0 ? Double.NaN : ya / xa, mb = nb == 0 ? 0 : yb / xb;
+        double variance = 0;
+        boolean census = true;
+        double[] z = new double[perStratum];
+        for (Stratum s : strata.values()) {
+            int n = s.size;
+            double fpc = 1 - (double) n / s.rows;
+            if (fpc <= 0) continue; // the whole stratum is in the sample
+            census = false;
+            double sum = 0;
+            for (int i = 0; i < n; i++) { // linearized residual of the row
+                double va = a.of(s, i), vb = b == null ? Double.NaN : b.of(s, i);
+                z[i] = (va == va ? ca * (va - ma) / xa : 0) - (vb == vb ? cb * (vb - mb) / xb : 0);
+                sum += z[i];
+            }
+            double mean = sum / n, ss = 0;
+            for (int i = 0; i < n; i++) ss += (z[i] - mean) * (z[i] - mean);
+            variance += (double) s.rows * s.rows * fpc * (ss / (n - 1)) / n;
+        }
+        return new Estimate(ca * ma - cb * mb, Z * Math.sqrt(variance), ma, mb, na, nb, census);
+    }
+
+    private Estimate mean(RowValue a) { return contrast(a, 1, null, 0); }
+
+    /**
+     * A yes/no check. decision is null when the sample can't decide it and an exact scan has
+     * to; exact says it was decided from the exact counts and extremes alone.
+     */
+    static final class Answer {
+        final Boolean decision;
+        final boolean exact;
+        final String detail;
+
+        private Answer(Boolean decision, boolean exact, String detail) {
+            this.decision = decision;
+            this.exact = exact;
+            this.detail = detail;
+        }
+
+        boolean decided() { return decision != null; }
+    }
+
+    private static Answer exact(boolean decision, String detail) { return new Answer(decision, true, detail); }
+
+    private static Answer undecided(String detail) { return new Answer(null, false, detail); }
+
+    /** TRUE when the interval of the two-group contrast e lies above 0, FALSE when below, else undecided. */
+    private static Answer decide(Estimate e, String detail) {
+        if (!e.census && (e.rowsA < MIN_DOMAIN_ROWS || e.rowsB < MIN_DOMAIN_ROWS)) return undecided(detail + " (too few sampled rows)");
+        if (e.lower() > 0) return new Answer(true, false, detail);
+        if (e.upper() < 0) return new Answer(false, false, detail);
+        return undecided(detail);
+    }
+
+    // ---------- Features ----------
+
+    /** Rows per lower-cased region (exact), as FeatureAggregator.regionCounts. */
+    Map<String, Integer> regionCounts() {
+        Map<String, Integer> m = new TreeMap<>();
+        for (Stratum s : strata.values()) if (s.rows > 0) m.merge(s.region, (int) s.rows, Integer::sum);
+        return m;
+    }
+
+    Answer feature08_oldVsYoungCharges() {
+        if (nanCharges) return undecided("charges has NaN values");
+        Estimate e = contrast((s, i) -> s.age[i] >= 50 ? s.charges[i] : Double.NaN, 1,
+                              (s, i) -> s.age[i] <= 20 ? s.charges[i] : Double.NaN, 2);
+        return decide(e, String.format(Locale.US, "avg charges age>=50 %.2f, age<=20 %.2f; first - 2 x second = %s",
+                e.meanA, e.meanB, e));
+    }
+
+    /** Exact: the charge extremes per BMI band are kept in full. */
+    Answer feature09_bmi30to45HasWiderChargeRange() {
+        if (nanCharges) return undecided("charges has NaN values");
+        double low = range(0), mid = range(1), high = range(2);
+        return exact(mid > low && mid > high,
+                String.format(Locale.US, "charge ranges by BMI <30 / 30-45 / >45: %.2f / %.2f / %.2f", low, mid, high));
+    }
+
+    private double range(int band) { // 0 when the band is empty
+        return bandMin[band] <= bandMax[band] ? bandMax[band] - bandMin[band] : 0;
+    }
+
+    /**
+     * Avg charges per child never rises from one children count to the next (avg itself for 0
+     * children). Decided when every step is decided one way, or one is decided as a rise.
+     */
+    Answer feature10_lowerChargePerChild() {
+        if (nanCharges) return undecided("charges has NaN values");
+        StringBuilder steps = new StringBuilder();
+        boolean allLower = true;
+        int prev = Integer.MIN_VALUE;
+        for (int c : childrenSeen.keys()) {
+            if (prev != Integer.MIN_VALUE) {
+                int p = prev, q = c;
+                Estimate e = contrast((s, i) -> s.children[i] == q ? s.charges[i] : Double.NaN, q == 0 ? 1 : 1.0 / q,
+                                      (s, i) -> s.children[i] == p ? s.charges[i] : Double.NaN, p == 0 ? 1 : 1.0 / p);
+                if (steps.length() > 0) steps.append(", ");
+                steps.append(p).append("->").append(q).append(": ").append(e);
+                Answer step = decide(e, "");
+                if (step.decided() && step.decision) {
+                    return new Answer(false, false, "per-child charge rises " + p + "->" + q + ": " + e);
+                }
+                if (!step.decided()) allLower = false;
+            }
+            prev = c;
+        }
+        String detail = "per-child charge change " + steps;
+        return allLower ? new Answer(true, false, detail) : undecided(detail);
+    }
+
+    /** The range half is exact; the averages are estimated. */
+    Answer feature11_smokersHigherAvgAndWider() {
+        double minS = Double.POSITIVE_INFINITY, maxS = Double.NEGATIVE_INFINITY, minN = minS, maxN = maxS;
+        long smokers = 0, others = 0;
+        for (Stratum s : strata.values()) {
+            if (s.smoker) { smokers += s.rows; minS = Math.min(minS, s.minCharges); maxS = Math.max(maxS, s.maxCharges); }
+            else { others += s.rows; minN = Math.min(minN, s.minCharges); maxN = Math.max(maxN, s.maxCharges); }
+        }
+        if (smokers == 0 || others == 0) return exact(false, "no smokers or no non-smokers");
+        String ranges = String.format(Locale.US, "charge range smokers %.2f, non-smokers %.2f", maxS - minS, maxN - minN);
+        if (!(maxS - minS > maxN - minN)) return exact(false, ranges);
+        if (nanCharges) return undecided(ranges + "; charges has NaN values");
+        Estimate e = contrast((s, i) -> s.smoker ? s.charges[i] : Double.NaN, 1,
+                              (s, i) -> s.smoker ? Double.NaN : s.charges[i], 1);
+        return decide(e, ranges + String.format(Locale.US, "; avg charges smokers %.2f, non-smokers %.2f; difference %s",
+                e.meanA, e.meanB, e));
+    }
+
+    Answer feature12_southSmokers() {
+        long south = 0, other = 0;
+        for (Stratum s : strata.values()) if (s.smoker) { if (s.south) south += s.rows; else other += s.rows; }
+        if (south == 0 || other == 0) return exact(false, "no southern or no other smokers");
+        if (nanCharges) return undecided("charges has NaN values");
+        Estimate e = contrast((s, i) -> s.smoker && s.south ? s.charges[i] : Double.NaN, 1,
+                              (s, i) -> s.smoker && !s.south ? s.charges[i] : Double.NaN, 1.25);
+        return decide(e, String.format(Locale.US, "avg charges south smokers %.2f, other smokers %.2f; first - 1.25 x second = %s",
+                e.meanA, e.meanB, e));
+    }
+
+    Answer feature13_smokersLowerBmi() {
+        long smokers = 0, others = 0;
+        for (Stratum s : strata.values()) if (s.smoker) smokers += s.rows; else others += s.rows;
+        if (smokers == 0 || others == 0) return exact(false, "no smokers or no non-smokers");
+        if (nanBmi) return undecided("bmi has NaN values");
+        Estimate e = contrast((s, i) -> s.smoker ? Double.NaN : s.bmi[i], 1,
+                              (s, i) -> s.smoker ? s.bmi[i] : Double.NaN, 1);
+        return decide(e, String.format(Locale.US, "avg BMI non-smokers %.2f, smokers %.2f; difference %s",
+                e.meanA, e.meanB, e));
+    }
+
+    /** Smoking rates in the south and the north (exact), as in feature 17. */
+    double[] feature17_smokingRates() {
+        long south = 0, southSmokers = 0, north = 0, northSmokers = 0;
+        for (Stratum s : strata.values()) {
+            if (s.south) { south += s.rows; if (s.smoker) southSmokers += s.rows; }
+            else if (s.north) { north += s.rows; if (s.smoker) northSmokers += s.rows; }
+        }
+        return new double[]{south == 0 ? 0 : southSmokers / (double) south, north == 0 ? 0 : northSmokers / (double) north};
+    }
+
+    Estimate southAvgAge() { return mean((s, i) -> s.south ? s.age[i] : Double.NaN); }
+
+    Estimate northAvgAge() { return mean((s, i) -> s.north ? s.age[i] : Double.NaN); }
+
+    /** Southerners average more children than northerners; the estimate's means are south and north. */
+    Estimate feature19_childrenSouthMinusNorth() {
+        return contrast((s, i) -> s.south ? s.children[i] : Double.NaN, 1,
+                        (s, i) -> s.north ? s.children[i] : Double.NaN, 1);
+    }
+
+    Answer feature19_southMoreChildren() {
+        Estimate e = feature19_childrenSouthMinusNorth();
+        return decide(e, String.format(Locale.US, "avg children south %.2f, north %.2f; difference %s", e.meanA, e.meanB, e));
+    }
+}
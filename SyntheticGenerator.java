@@ -0,0 +1,256 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Synthetic insurance.csv data at any size, learned from a real file. The model keeps:
+ * - the empirical distributions of age, sex and children,
+ * - the joint distribution of (smoker, region),
+ * - per (smoker, region) cell, the BMI values (resampled with Gaussian kernel noise) and a
+ *   least-squares fit of charges on age, BMI and children, with the fit's residuals.
+ * A synthetic row draws its cell, then charges = fit + a resampled residual of that cell. So
+ * the smoker and region effects on charges, their spread and skew, and the region/BMI link
+ * carry over, while age, sex and children are drawn independently.
+ *
+ * Rows are generated in blocks of BLOCK_ROWS, each from its own SplittableRandom split off
+ * the seed in block order, formatted on a worker thread and written in block order. The
+ * file therefore depends only on the model, the seed and the row count, and is
+ * byte-identical for any thread count.
+ *
+ * Usage: java SyntheticGenerator <model.csv> <out.csv> <rows> [--seed=S] [--threads=K]
+ */
+final class SyntheticGenerator {
+    static final int BLOCK_ROWS = 1 << 16;
+    static final String HEADER = "age,sex,bmi,children,smoker,region,charges";
+
+    private final InsuranceTable source;
+    private final int regions;        // region codes per smoker code in the cell numbering
+    private final int[][] cellRows;   // source rows per cell (smoker code * regions + region code)
+    private final double[][] fits;    // per cell: intercept, age, bmi, children
+    private final double[][] residuals;
+    private final double[] bmiNoise;  // per cell kernel bandwidth
+    private final double bmiMin, bmiMax, chargesMin;
+
+    private SyntheticGenerator(InsuranceTable t) {
+        int n = t.size();
+        if (n == 0) throw new IllegalArgumentException("The model CSV has no rows.");
+        source = t;
+        regions = t.regionDict.size();
+        int cells = t.smokerDict.size() * regions;
+        int[] counts = new int[cells];
+        for (int i = 0; i < n; i++) counts[cell(i)]++;
+        cellRows = new int[cells][];
+        for (int c = 0; c < cells; c++) cellRows[c] = new int[counts[c]];
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < n; i++) cellRows[cell(i)][counts[cell(i)]++] = i;
+
+        Driver.Stats bmi = new Driver.Stats(), charges = new Driver.Stats();
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(t.bmi[i])) bmi.add(t.bmi[i]);
+            charges.add(t.charges[i]);
+        }
+        bmiMin = bmi.count == 0 ? 0 : bmi.min;
+        bmiMax = bmi.count == 0 ? 0 : bmi.max;
+        chargesMin = charges.min;
+
+        fits = new double[cells][];
+        residuals = new double[cells][];
+        bmiNoise = new double[cells];
+        double[] x = new double[3];
+        for (int c = 0; c < cells; c++) {
+            int[] rows = cellRows[c];
+            MultipleRegression model = new MultipleRegression("age", "bmi", "children");
+            OnlineRegression bmiSpread = new OnlineRegression(); // only its x moments are used
+            for (int i : rows) {
+                x[0] = t.age[i]; x[1] = t.bmi[i]; x[2] = t.children[i];
+                model.add(x, t.charges[i]);
+                if (!Double.isNaN(t.bmi[i])) bmiSpread.add(t.bmi[i], 0);
+            }
+            MultipleRegression.Fit fit = model.fit();
+            double[] f = new double[4];
+            if (fit != null) {
+                f[0] = fit.intercept;
+                System.arraycopy(fit.coefficients, 0, f, 1, 3);
+            } else { // too few rows: the cell mean
+                for (int i : rows) f[0] += t.charges[i];
+                f[0] = rows.length == 0 ? 0 : f[0] / rows.length;
+            }
+            fits[c] = f;
+            residuals[c] = new double[rows.length];
+            for (int k = 0; k < rows.length; k++) {
+                int i = rows[k];
+                double r = t.charges[i] - predict(f, t.age[i], t.bmi[i], t.children[i]);
+                residuals[c][k] = Double.isNaN(r) ? 0 : r;
+            }
+            // Silverman's rule of thumb
+            double sd = bmiSpread.n < 2 ? 0 : Math.sqrt(bmiSpread.sxx / (bmiSpread.n - 1));
+            bmiNoise[c] = bmiSpread.n < 2 ? 0 : 1.06 * sd * Math.pow(bmiSpread.n, -0.2);
+        }
+    }
+
+    /** Learns the model from the rows of t. */
+    static SyntheticGenerator learn(InsuranceTable t) { return new SyntheticGenerator(t); }
+
+    /** Learns the model from a CSV in the insurance.csv schema. */
+    static SyntheticGenerator learn(String csvPath) throws IOException {
+        return learn(Driver.loadTable(csvPath, Integer.MAX_VALUE));
+    }
+
+    private int cell(int row) { return source.smokerCode(row) * regions + source.regionCode(row); }
+
+    private static double predict(double[] f, double age, double bmi, double children) {
+        return f[0] + f[1] * age + f[2] * bmi + f[3] * children;
+    }
+
+    // ---------- Generation ----------
+
+    /**
+     * Writes a header and rows synthetic rows to out, generating blocks on threads threads.
+     * The bytes depend only on this model, seed and rows.
+     */
+    void write(Path out, long rows, long seed, int threads) throws IOException {
+        if (rows < 0) throw new IllegalArgumentException("rows must be >= 0: " + rows);
+        SplittableRandom root = new SplittableRandom(seed);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "synthetic-block");
+            t.setDaemon(true);
+            return t;
+        });
+        try (OutputStream w = new BufferedOutputStream(Files.newOutputStream(out), 1 << 16)) {
+            w.write((HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+            // A bounded window of blocks in flight, written in block order
+            ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+            long next = 0;
+            while (next < rows || !inFlight.isEmpty()) {
+                while (next < rows && inFlight.size() < 2 * Math.max(1, threads)) {
+                    int len = (int) Math.min(BLOCK_ROWS, rows - next);
+                    SplittableRandom rnd = root.split(); // splits happen in block order on this thread
+                    inFlight.add(pool.submit(() -> block(rnd, len)));
+                    next += len;
+                }
+                w.write(await(inFlight.poll()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** One block of CSV lines. */
+    byte[] block(SplittableRandom rnd, int rows) {
+        StringBuilder sb = new StringBuilder(rows * 64);
+        InsuranceTable t = source;
+        int n = t.size();
+        for (int r = 0; r < rows; r++) {
+            int age = t.age[rnd.nextInt(n)];
+            String sex = t.sexDict.decode(t.sexCode(rnd.nextInt(n)));
+            int children = t.children[rnd.nextInt(n)];
+            int anchor = rnd.nextInt(n); // its (smoker, region) cell
+            int c = cell(anchor);
+            int[] rows0 = cellRows[c];
+            double bmi = t.bmi[rows0[rnd.nextInt(rows0.length)]] + bmiNoise[c] * gaussian(rnd);
+            if (Double.isNaN(bmi)) bmi = bmiMin + (bmiMax - bmiMin) * rnd.nextDouble();
+            bmi = Math.max(bmiMin, Math.min(bmiMax, bmi));
+            double[] res = residuals[c];
+            double charges = predict(fits[c], age, bmi, children) + res[rnd.nextInt(res.length)];
+            charges = Math.max(chargesMin, charges);
+
+            sb.append(age).append(',');
+            appendField(sb, sex).append(',');
+            appendFixed(sb, bmi, 3).append(',').append(children).append(',');
+            appendField(sb, t.smokerDict.decode(t.smokerCode(anchor))).append(',');
+            appendField(sb, t.regionDict.decode(t.regionCode(anchor))).append(',');
+            appendFixed(sb, charges, 4).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static double gaussian(SplittableRandom rnd) { // Box-Muller
+        return Math.sqrt(-2 * Math.log(1 - rnd.nextDouble())) * Math.cos(2 * Math.PI * rnd.nextDouble());
+    }
+
+    /** A categorical value, quoted when it holds a comma or a quote. */
+    private static StringBuilder appendField(StringBuilder sb, String v) {
+        if (v.indexOf(',') < 0 && v.indexOf('"') < 0) return sb.append(v);
+        return sb.append('"').append(v.replace("\"", "\"\"")).append('"');
+    }
+
+    private static StringBuilder appendFixed(StringBuilder sb, double v, int decimals) {
+        long scale = (long) Math.pow(10, decimals);
+        long units = Math.round(v * scale);
+        if (units < 0) {
+            sb.append('-');
+            units = -units;
+        }
+        sb.append(units / scale).append('.');
+        String frac = Long.toString(units % scale);
+        for (int i = frac.length(); i < decimals; i++) sb.append('0');
+        return sb.append(frac);
+    }
+
+    private static byte[] await(Future<byte[]> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating rows.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    // ---------- Command line ----------
+
+    public static void main(String[] args) throws IOException {
+        long seed = 42;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String[] positional = new String[3];
+        int count = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--seed=")) {
+                try {
+                    seed = Long.parseLong(arg.substring("--seed=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println("--seed must be an integer.");
+                    System.exit(2);
+                }
+            } else if (arg.startsWith("--threads=")) {
+                threads = Driver.positiveIntOption(arg);
+            } else if (count < positional.length) {
+                positional[count++] = arg;
+            } else {
+                count++;
+            }
+        }
+        long rows = -1;
+        try {
+            if (count == 3) rows = Long.parseLong(positional[2]);
+        } catch (NumberFormatException e) {
+            rows = -1;
+        }
+        if (count != 3 || rows < 0) {
+            System.err.println("Usage: java SyntheticGenerator <model.csv> <out.csv> <rows> [--seed=S] [--threads=K]");
+            System.exit(2);
+        }
+        SyntheticGenerator gen = learn(positional[0]);
+        long t0 = System.nanoTime();
+        gen.write(Paths.get(positional[1]), rows, seed, threads);
+        double secs = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("Wrote %d rows to %s in %.2f s (%.0f rows/s, seed %d, %d threads)%n",
+                rows, positional[1], secs, rows / secs, seed, threads);
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary columnar snapshot of a parsed CSV, stored next to it as <csv>.snap, so later runs
+ * can skip parsing. Layout (little-endian):
+ * <pre>
+ *   magic "INSSNAP\0", int version, int flags (bit 0: every CSV row is included), long rows,
+ *   source fingerprint: long size, long mtime (ns), long CRC32C of the first and last 1 MB,
+ *   schema string, then the sex/smoker/region dictionaries (values in code order),
+ *   padding to 8 bytes, then the columns: bmi f64, charges f64, age i32, children i32,
+ *   sex, smoker, region as u16 codes.
+ * </pre>
+ * The columns are memory-mapped and bulk-copied into a table, only as many rows as asked for,
+ * or, for an OffHeapTable, mapped and used in place (map).
+ * A snapshot is used only when the fingerprint still matches the CSV; a changed size or
+ * modification time, or changed bytes at either end, means the CSV is parsed again.
+ */
+final class TableSnapshot {
+    static final byte[] MAGIC = {'I', 'N', 'S', 'S', 'N', 'A', 'P', 0};
+    static final int VERSION = 3; // 2: children i32 (was i8); 3: u16 codes (were u8)
+    static final int FLAG_COMPLETE = 1;
+    static final String SCHEMA = "age:i32,sex:dict16,bmi:f64,children:i32,smoker:dict16,region:dict16,charges:f64";
+    static final int FINGERPRINT_BLOCK = 1 << 20;
+    private static final int BYTES_PER_ROW = 8 + 8 + 4 + 4 + 2 + 2 + 2;
+    private static final int WRITE_BUFFER = 1 << 20;
+
+    static Path pathFor(String csvPath) {
+        return Paths.get(csvPath + ".snap");
+    }
+
+    /** Identity of a source CSV: size, modification time and a checksum of its first and last block. */
+    static final class Source {
+        final long size, mtime, checksum;
+
+        Source(long size, long mtime, long checksum) {
+            this.size = size;
+            this.mtime = mtime;
+            this.checksum = checksum;
+        }
+
+        static Source of(Path csv) throws IOException {
+            try (FileChannel ch = FileChannel.open(csv, StandardOpenOption.READ)) {
+                long size = ch.size();
+                long mtime = Files.getLastModifiedTime(csv).to(TimeUnit.NANOSECONDS);
+                CRC32C crc = new CRC32C();
+                ByteBuffer block = ByteBuffer.allocate(FINGERPRINT_BLOCK);
+                checksum(ch, 0, crc, block);
+                if (size > FINGERPRINT_BLOCK) checksum(ch, Math.max(FINGERPRINT_BLOCK, size - FINGERPRINT_BLOCK), crc, block);
+                return new Source(size, mtime, crc.getValue());
+            }
+        }
+
+        private static void checksum(FileChannel ch, long pos, CRC32C crc, ByteBuffer block) throws IOException {
+            block.clear();
+            while (block.hasRemaining()) {
+                int n = ch.read(block, pos + block.position());
+                if (n < 0) break;
+            }
+            block.flip();
+            crc.update(block);
+        }
+
+        boolean matches(Source o) {
+            return size == o.size && mtime == o.mtime && checksum == o.checksum;
+        }
+    }
+
+    /**
+     * Returns the first N rows stored in snap, or null when there is no usable snapshot:
+     * missing, unreadable, for a different source, or holding fewer than N rows of a CSV
+     * that has more.
+     */
+    static InsuranceTable load(Path snap, Source source, int N) {
+        if (!Files.isRegularFile(snap)) return null;
+        try (FileChannel ch = FileChannel.open(snap, StandardOpenOption.READ)) {
+            InsuranceTable t = new InsuranceTable(1);
+            Layout layout = readHeader(ch, source, N, t.sexDict, t.smokerDict, t.regionDict);
+            if (layout == null) return null;
+
+            long rows = layout.rows;
+            int n = (int) Math.min(rows, N);
+            t.setRowCount(n);
+            long pos = layout.data;
+            column(ch, pos, n, 8).asDoubleBuffer().get(t.bmi, 0, n);      pos += 8 * rows;
+            column(ch, pos, n, 8).asDoubleBuffer().get(t.charges, 0, n);  pos += 8 * rows;
+            column(ch, pos, n, 4).asIntBuffer().get(t.age, 0, n);         pos += 4 * rows;
+            column(ch, pos, n, 4).asIntBuffer().get(t.children, 0, n);    pos += 4 * rows;
+            column(ch, pos, n, 2).asCharBuffer().get(t.sex, 0, n);        pos += 2 * rows;
+            column(ch, pos, n, 2).asCharBuffer().get(t.smoker, 0, n);     pos += 2 * rows;
+            column(ch, pos, n, 2).asCharBuffer().get(t.region, 0, n);
+            return t;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            return null; // unreadable or corrupt: parse the CSV instead
+        }
+    }
+
+    /**
+     * Like load, but maps the first N rows' columns instead of copying them, for an
+     * OffHeapTable: the rows stay in the page cache, outside the heap. The mappings stay
+     * valid after the file is closed.
+     */
+    static OffHeapTable map(Path snap, Source source, int N) {
+        if (!Files.isRegularFile(snap)) return null;
+        try (FileChannel ch = FileChannel.open(snap, StandardOpenOption.READ)) {
+            InsuranceTable.Dictionary sex = new InsuranceTable.Dictionary(), smoker = new InsuranceTable.Dictionary(),
+                    region = new InsuranceTable.Dictionary();
+            Layout layout = readHeader(ch, source, N, sex, smoker, region);
+            if (layout == null) return null;
+
+            long rows = layout.rows;
+            int n = (int) Math.min(rows, N);
+            int chunks = (n + OffHeapTable.CHUNK_MASK) >>> OffHeapTable.CHUNK_SHIFT;
+            ByteBuffer[][] columns = new ByteBuffer[7][chunks];
+            int[] widths = {8, 8, 4, 4, 2, 2, 2}; // file order: bmi, charges, age, children, sex, smoker, region
+            long pos = layout.data;
+            for (int k = 0; k < columns.length; k++) {
+                for (int c = 0; c < chunks; c++) {
+                    long first = (long) c << OffHeapTable.CHUNK_SHIFT;
+                    int len = (int) Math.min(OffHeapTable.CHUNK_ROWS, n - first);
+                    columns[k][c] = column(ch, pos + first * widths[k], len, widths[k]);
+                }
+                pos += rows * widths[k];
+            }
+            return new OffHeapTable(sex, smoker, region, columns[0], columns[1], columns[2], columns[4],
+                    columns[3], columns[5], columns[6], n);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /** Where the columns of a snapshot are: rows per column from byte offset data on. */
+    private static final class Layout {
+        final long rows, data;
+
+        Layout(long rows, long data) {
+            this.rows = rows;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Checks the header of the snapshot open on ch and reads its dictionaries into sex,
+     * smoker and region. Returns null when the snapshot can't serve the first N rows of source.
+     */
+    private static Layout readHeader(FileChannel ch, Source source, int N, InsuranceTable.Dictionary sex,
+                                     InsuranceTable.Dictionary smoker, InsuranceTable.Dictionary region) throws IOException {
+        long fileSize = ch.size();
+        MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, Integer.MAX_VALUE));
+        head.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[MAGIC.length];
+        head.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || head.getInt() != VERSION) return null;
+        int flags = head.getInt();
+        long rows = head.getLong();
+        Source stored = new Source(head.getLong(), head.getLong(), head.getLong());
+        if (!stored.matches(source) || !SCHEMA.equals(readString(head))) return null;
+        if (rows < 0 || rows > Integer.MAX_VALUE) return null;
+        if ((flags & FLAG_COMPLETE) == 0 && rows < N) return null;
+
+        readDictionary(head, sex);
+        readDictionary(head, smoker);
+        readDictionary(head, region);
+        long data = align8(head.position());
+        if (data + rows * BYTES_PER_ROW != fileSize) return null; // truncated or trailing bytes
+        return new Layout(rows, data);
+    }
+    private static ByteBuffer column(FileChannel ch, long pos, int rows, int width) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_ONLY, pos, (long) rows * width).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) throw new IllegalArgumentException("bad string length");
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readDictionary(ByteBuffer buf, InsuranceTable.Dictionary dict) {
+        int count = buf.getInt();
+        if (count < 0 || count > InsuranceTable.Dictionary.MAX_CODES) throw new IllegalArgumentException("bad dictionary");
+        for (int c = 0; c < count; c++) {
+            if (dict.encode(readString(buf)) != c) throw new IllegalArgumentException("duplicate dictionary value");
+        }
+    }
+
+    /**
+     * Writes t as the snapshot of source. complete says t holds every row of the CSV.
+     * The file is written under a temporary name and moved into place.
+     */
+    static void write(Path snap, Source source, InsuranceTable t, boolean complete) throws IOException {
+        Path tmp = snap.resolveSibling(snap.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+                int rows = t.size();
+                putHeader(ch, buf, source, rows, complete, t.sexDict, t.smokerDict, t.regionDict);
+
+                for (int off = 0; off < rows; ) { // bmi
+                    room(ch, buf, 8);
+                    int n = Math.min(rows - off, buf.remaining() / 8);
+                    buf.asDoubleBuffer().put(t.bmi, off, n);
+                    buf.position(buf.position() + 8 * n);
+                    off += n;
+                }
+                for (int off = 0; off < rows; ) { // charges
+                    room(ch, buf, 8);
+                    int n = Math.min(rows - off, buf.remaining() / 8);
+                    buf.asDoubleBuffer().put(t.charges, off, n);
+                    buf.position(buf.position() + 8 * n);
+                    off += n;
+                }
+                putInts(ch, buf, t.age, rows);
+                putInts(ch, buf, t.children, rows);
+                putChars(ch, buf, t.sex, rows);
+                putChars(ch, buf, t.smoker, rows);
+                putChars(ch, buf, t.region, rows);
+                drain(ch, buf);
+            }
+            moveIntoPlace(tmp, snap);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** write for an off-heap table: the column chunks go to the file as they are. */
+    static void write(Path snap, Source source, OffHeapTable t, boolean complete) throws IOException {
+        Path tmp = snap.resolveSibling(snap.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocate(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+                putHeader(ch, buf, source, t.size(), complete, t.sexDict, t.smokerDict, t.regionDict);
+                drain(ch, buf);
+                putColumn(ch, t, t.bmi, 8);
+                putColumn(ch, t, t.charges, 8);
+                putColumn(ch, t, t.age, 4);
+                putColumn(ch, t, t.children, 4);
+                putColumn(ch, t, t.sex, 2);
+                putColumn(ch, t, t.smoker, 2);
+                putColumn(ch, t, t.region, 2);
+            }
+            moveIntoPlace(tmp, snap);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void putColumn(FileChannel ch, OffHeapTable t, ByteBuffer[] chunks, int width) throws IOException {
+        for (int c = 0; c < t.chunkCount(); c++) {
+            ByteBuffer rows = chunks[c].duplicate();
+            rows.clear().limit(t.chunkRows(c) * width);
+            while (rows.hasRemaining()) ch.write(rows);
+        }
+    }
+
+    /** Everything before the columns, including the padding to 8 bytes. */
+    private static void putHeader(FileChannel ch, ByteBuffer buf, Source source, int rows, boolean complete,
+                                  InsuranceTable.Dictionary sex, InsuranceTable.Dictionary smoker,
+                                  InsuranceTable.Dictionary region) throws IOException {
+        buf.put(MAGIC).putInt(VERSION).putInt(complete ? FLAG_COMPLETE : 0).putLong(rows);
+        buf.putLong(source.size).putLong(source.mtime).putLong(source.checksum);
+        putString(ch, buf, SCHEMA);
+        putDictionary(ch, buf, sex);
+        putDictionary(ch, buf, smoker);
+        putDictionary(ch, buf, region);
+        room(ch, buf, 8);
+        while ((ch.position() + buf.position()) % 8 != 0) buf.put((byte) 0);
+    }
+
+    /** Replaces target with the fully written tmp, atomically where the file system allows it. */
+    static void moveIntoPlace(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void putString(FileChannel ch, ByteBuffer buf, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        room(ch, buf, 4);
+        buf.putInt(bytes.length);
+        putBytes(ch, buf, bytes, bytes.length);
+    }
+
+    private static void putDictionary(FileChannel ch, ByteBuffer buf, InsuranceTable.Dictionary dict) throws IOException {
+        room(ch, buf, 4);
+        buf.putInt(dict.size());
+        for (int c = 0; c < dict.size(); c++) putString(ch, buf, dict.decode(c));
+    }
+
+    private static void putInts(FileChannel ch, ByteBuffer buf, int[] ints, int len) throws IOException {
+        for (int off = 0; off < len; ) {
+            room(ch, buf, 4);
+            int n = Math.min(len - off, buf.remaining() / 4);
+            buf.asIntBuffer().put(ints, off, n);
+            buf.position(buf.position() + 4 * n);
+            off += n;
+        }
+    }
+
+    private static void putChars(FileChannel ch, ByteBuffer buf, char[] chars, int len) throws IOException {
+        for (int off = 0; off < len; ) {
+            room(ch, buf, 2);
+            int n = Math.min(len - off, buf.remaining() / 2);
+            buf.asCharBuffer().put(chars, off, n);
+            buf.position(buf.position() + 2 * n);
+            off += n;
+        }
+    }
+
+    private static void putBytes(FileChannel ch, ByteBuffer buf, byte[] bytes, int len) throws IOException {
+        for (int off = 0; off < len; ) {
+            room(ch, buf, 1);
+            int n = Math.min(len - off, buf.remaining());
+            buf.put(bytes, off, n);
+            off += n;
+        }
+    }
+
+    /** Drains buf to the channel unless it has at least bytes free. */
+    private static void room(FileChannel ch, ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() < bytes) drain(ch, buf);
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    private static long align8(long pos) {
+        return (pos + 7) & ~7L;
+    }
+}